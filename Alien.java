@@ -1,25 +1,27 @@
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Represents an alien in the Space Invaders game.
  * This class manages the properties and behaviors of an alien,
- * including its position, movement, and firing mechanics.
+ * including its position and firing mechanics.
+ * Every alien occupies a slot in a {@link Formation}, which owns its position
+ * and moves it together with the rest of the formation.
+ * When an alien fires is decided by the World's FireScheduler; the alien
+ * only knows where its bullets start.
  */
 
 public final class Alien {
-    private int x;
-    private int y;
-    private int direction; // 1 for right, -1 for left
-    private int bulletCooldown;
-    private boolean isFiring;
-    private long lastBulletTime;
-
-    private List<Bullet> alienBullets;
+    private final Formation formation;
+    private final int slot;
+    private final int id;
+
     public static final int ALIEN_SIZE = 30;
 
+    // By default an alien fires between 2 and 4 seconds after its last shot
+    public static final int FIRE_DELAY_TICKS = 2000 / World.TICK_MILLIS;
+    public static final int FIRE_JITTER_TICKS = 2000 / World.TICK_MILLIS;
+
     /**
      * Constructs an Alien with specified coordinates.
      * 
@@ -28,59 +30,42 @@ public final class Alien {
      */
 
     public Alien(int x, int y) {
-        this.x = x;
-        this.y = y;
-        this.direction = 1;
-        this.alienBullets = new ArrayList<>();
-        this.isFiring = false;
-        this.lastBulletTime = System.currentTimeMillis();
+        this(x, y, -1);
     }
 
     /**
-     * Returns the list of bullets fired by the alien.
+     * Constructs an Alien with specified coordinates and an id that is
+     * recorded on every bullet it fires.
      * 
-     * @return A list of Bullet objects.
+     * @param x  The x-coordinate of the alien.
+     * @param y  The y-coordinate of the alien.
+     * @param id The id of the alien.
      */
 
-    public final List<Bullet> getAlienBullets() {
-        return alienBullets;
+    public Alien(int x, int y, int id) {
+        this.formation = new Formation(x, y, this);
+        this.slot = 0;
+        this.id = id;
     }
 
     /**
-     * Updates the alien's position and manages bullet firing.
+     * Constructs the Alien occupying a slot of a formation.
      */
 
-    public final void update() {
-        x += direction;
-        long currentTime = System.currentTimeMillis();
-        if (!isFiring && currentTime - lastBulletTime > 2000 + Math.random() * 2000 && bulletCooldown <= 0) {
-            fireBullet();
-            lastBulletTime = currentTime;
-            isFiring = true;
-            bulletCooldown = 100;
-        } else {
-            isFiring = false;
-        }
-
-        if (bulletCooldown > 0) {
-            bulletCooldown--;
-        }
-    }
-
-    private final void fireBullet() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastBulletTime > 2000 + Math.random() * 2000) {
-            alienBullets.add(new Bullet(x + 15, y + 30, 1));
-        }
+    Alien(Formation formation, int slot, int id) {
+        this.formation = formation;
+        this.slot = slot;
+        this.id = id;
     }
 
-    public final void moveDown() {
-        y += 10; // Move one layer down
-        changeDirection(); // Change direction after moving down
-    }
+    /**
+     * Fires a bullet downwards from the alien's position.
+     *
+     * @param alienBullets The store that bullets fired by the alien go to.
+     */
 
-    private final void changeDirection() {
-        direction *= -1; // Change direction to opposite horizontal direction
+    public final void fire(BulletStore alienBullets) {
+        alienBullets.spawn(getX() + 15, getY() + 30, 1, id);
     }
 
     /**
@@ -91,7 +76,7 @@ public final class Alien {
 
     public final void render(Graphics2D g2d) {
         g2d.setColor(Color.GREEN);
-        g2d.fillRect(x, y, 15, 15);
+        g2d.fillRect(getX(), getY(), 15, 15);
     }
 
     /**
@@ -103,6 +88,8 @@ public final class Alien {
      */
 
     public final boolean intersects(Bullet bullet) {
+        int x = getX();
+        int y = getY();
         return x < bullet.getX() + 5 &&
                 x + 30 > bullet.getX() &&
                 y < bullet.getY() + 5 &&
@@ -119,6 +106,8 @@ public final class Alien {
      */
 
     public final boolean intersects(Obstacle obstacle) {
+        int x = getX();
+        int y = getY();
         return x < obstacle.getX() + Obstacle.WIDTH &&
                 x + ALIEN_SIZE > obstacle.getX() &&
                 y < obstacle.getY() + Obstacle.HEIGHT &&
@@ -131,7 +120,7 @@ public final class Alien {
      */
 
     public final int getX() {
-        return x;
+        return formation.getSlotX(slot);
     }
 
     /**
@@ -140,6 +129,33 @@ public final class Alien {
      */
 
     public final int getY() {
-        return y;
+        return formation.getSlotY(slot);
+    }
+
+    /**
+     * 
+     * @return id The id of the alien, or -1 if none was given.
+     */
+
+    public final int getId() {
+        return id;
+    }
+
+    /**
+     * 
+     * @return slot The slot the alien occupies in its formation.
+     */
+
+    public final int getSlot() {
+        return slot;
+    }
+
+    /**
+     * 
+     * @return formation The formation the alien belongs to.
+     */
+
+    public final Formation getFormation() {
+        return formation;
     }
 }
@@ -0,0 +1,140 @@
+/**
+ * The entities of an EntityStore that have exactly the same components.
+ * Each component is a dense int column with one row per live entity, so
+ * iterating a component of every entity of the archetype is a linear pass
+ * over one array. Rows are packed at the front of the columns: spawning
+ * takes the row behind the last one, and despawning moves the last entity
+ * into the hole, updating the store's directory so its handle still finds
+ * it. Columns are allocated once at the archetype's capacity and never grow.
+ */
+
+public final class Archetype {
+    private final EntityStore store;
+    private final long mask;
+    private final int[][] columns = new int[Component.COUNT][];
+
+    // The columns the archetype has, for moving whole rows
+    private final int[][] present;
+
+    // Directory index of the entity in each row
+    private final int[] indices;
+    private int size;
+
+    /**
+     * Constructs an empty archetype; created by EntityStore.createArchetype.
+     */
+
+    Archetype(EntityStore store, long mask, int capacity) {
+        this.store = store;
+        this.mask = mask;
+        this.indices = new int[capacity];
+        this.present = new int[Long.bitCount(mask)][];
+        int count = 0;
+        for (int component = 0; component < Component.COUNT; component++) {
+            if ((mask & Component.bit(component)) != 0) {
+                columns[component] = new int[capacity];
+                present[count++] = columns[component];
+            }
+        }
+    }
+
+    /**
+     * Takes the row behind the last one for a new entity.
+     *
+     * @param index The directory index of the entity.
+     * @return The row, or -1 if the archetype is full.
+     */
+
+    final int add(int index) {
+        if (size == indices.length) {
+            return -1;
+        }
+        indices[size] = index;
+        return size++;
+    }
+
+    /**
+     * Despawns the entity in a row by moving the last entity into it. Rows
+     * above the removed one are not disturbed, so a loop can remove while
+     * walking the rows from the top down.
+     *
+     * @param row The row to free.
+     */
+
+    public final void remove(int row) {
+        int last = --size;
+        store.release(indices[row]);
+        if (row != last) {
+            for (int[] column : present) {
+                column[row] = column[last];
+            }
+            indices[row] = indices[last];
+            store.relocate(indices[row], row);
+        }
+    }
+
+    /**
+     * Despawns every entity.
+     */
+
+    public final void clear() {
+        for (int row = 0; row < size; row++) {
+            store.release(indices[row]);
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the column of a component. Only the first size() rows hold live
+     * entities, and a column stays valid for the life of the archetype.
+     *
+     * @param component One of the Component constants.
+     * @return The column, or null if the archetype lacks the component.
+     */
+
+    public final int[] column(int component) {
+        return columns[component];
+    }
+
+    /**
+     *
+     * @param row A live row.
+     * @return The handle of the entity in the row.
+     */
+
+    public final long getHandle(int row) {
+        return store.getHandle(indices[row]);
+    }
+
+    /**
+     *
+     * @param required A mask of component bits.
+     * @return true if the archetype has every component in the mask.
+     */
+
+    public final boolean has(long required) {
+        return (mask & required) == required;
+    }
+
+    public final long getMask() {
+        return mask;
+    }
+
+    /**
+     *
+     * @return The number of live entities.
+     */
+
+    public final int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return The maximum number of live entities.
+     */
+
+    public final int capacity() {
+        return indices.length;
+    }
+}
@@ -0,0 +1,275 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Plays large numbers of headless games over a grid of balance settings and
+ * reports how long a scripted player survives, how much it scores and how
+ * fast it kills at each setting.
+ * Games are independent worlds with their own GameState and GameConfig, so
+ * they run in parallel on a ForkJoinPool without sharing anything but the
+ * result arrays, where each game writes only its own slots. Every point of
+ * the grid plays the same seeds, so differences between points come from the
+ * balance rather than from luck.
+ * Throughput is reported in games per second per thread; with --scaling, a
+ * fixed batch is also timed at 1, 2, 4 and more threads up to the number of
+ * cores, to show how close to linear it scales.
+ */
+
+public final class BalanceTuner {
+    // Games longer than this are stopped and counted as survived
+    private static final int MAX_TICKS = 3 * 60 * 1000 / World.TICK_MILLIS;
+
+    // Games a fork-join task plays itself instead of splitting further
+    private static final int GAMES_PER_TASK = 4;
+
+    private static final int DEFAULT_GAMES_PER_POINT = 50;
+
+    /**
+     * Decides the input of the player from the state of a world.
+     * One policy is shared by every game, so it must keep no state of its own.
+     */
+    public interface Policy {
+        /**
+         * @param world The world about to be stepped.
+         * @return The commands for the tick, a combination of the
+         *         PlayerCommands bits.
+         */
+        int decide(World world);
+    }
+
+    /**
+     * Dodges alien bullets about to hit the player, and otherwise moves under
+     * the nearest alien and fires at a steady rate.
+     */
+    public static final class TrackingPolicy implements Policy {
+        // Ticks between shots, and how far above the player a bullet is a threat
+        private static final int FIRE_INTERVAL = 25;
+        private static final int DANGER_HEIGHT = 120;
+
+        @Override
+        public final int decide(World world) {
+            Player player = world.getPlayer();
+            int center = player.getX() + Player.PLAYER_SIZE / 2;
+
+            BulletStore alienBullets = world.getAlienBullets();
+            for (int i = 0; i < alienBullets.size(); i++) {
+                int x = alienBullets.getX(i);
+                int y = alienBullets.getY(i);
+                if (y < player.getY() && y > player.getY() - DANGER_HEIGHT
+                        && x + Bullet.BULLET_SIZE > player.getX() && x < player.getX() + Player.PLAYER_SIZE) {
+                    boolean left = x > center ? player.getX() > 0 : player.getX() >= 700;
+                    return left ? PlayerCommands.MOVE_LEFT : PlayerCommands.MOVE_RIGHT;
+                }
+            }
+
+            int input = world.getTickCount() % FIRE_INTERVAL == 0 ? PlayerCommands.FIRE : 0;
+            Formation formation = world.getFormation();
+            int target = -1;
+            int distance = Integer.MAX_VALUE;
+            for (int slot = formation.nextAlive(0); slot != -1; slot = formation.nextAlive(slot + 1)) {
+                int d = Math.abs(formation.getSlotX(slot) + Alien.ALIEN_SIZE / 2 - center);
+                if (d < distance) {
+                    distance = d;
+                    target = formation.getSlotX(slot) + Alien.ALIEN_SIZE / 2;
+                }
+            }
+            if (target != -1 && distance > 5) {
+                input |= target < center ? PlayerCommands.MOVE_LEFT : PlayerCommands.MOVE_RIGHT;
+            }
+            return input;
+        }
+    }
+
+    /**
+     * The outcomes of every game played at one point of the grid.
+     */
+    private static final class Point {
+        private final GameConfig config;
+        private final int[] ticks;
+        private final int[] scores;
+
+        private Point(GameConfig config, int games) {
+            this.config = config;
+            this.ticks = new int[games];
+            this.scores = new int[games];
+        }
+    }
+
+    /**
+     * Plays a range of the games of a batch, splitting it in halves until the
+     * pieces are small enough.
+     */
+    private static final class GameTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Point> points;
+        private final int gamesPerPoint;
+        private final Policy policy;
+        private final int from;
+        private final int to;
+
+        private GameTask(List<Point> points, int gamesPerPoint, Policy policy, int from, int to) {
+            this.points = points;
+            this.gamesPerPoint = gamesPerPoint;
+            this.policy = policy;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected final void compute() {
+            if (to - from <= GAMES_PER_TASK) {
+                for (int game = from; game < to; game++) {
+                    Point point = points.get(game / gamesPerPoint);
+                    play(point, game % gamesPerPoint, policy);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new GameTask(points, gamesPerPoint, policy, from, middle),
+                    new GameTask(points, gamesPerPoint, policy, middle, to));
+        }
+    }
+
+    private BalanceTuner() {
+    }
+
+    /**
+     * Runs the sweep.
+     *
+     * @param args The number of games per point, then the number of threads;
+     *             both optional. --scaling also measures scaling.
+     */
+
+    public static final void main(String[] args) {
+        int gamesPerPoint = DEFAULT_GAMES_PER_POINT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean scaling = false;
+        int position = 0;
+        for (String arg : args) {
+            if (arg.equals("--scaling")) {
+                scaling = true;
+            } else if (position++ == 0) {
+                gamesPerPoint = Integer.parseInt(arg);
+            } else {
+                threads = Integer.parseInt(arg);
+            }
+        }
+
+        List<Point> points = new ArrayList<>();
+        for (int[] formation : new int[][] { { 4, 5 }, { 6, 10 } }) {
+            for (int fireDelay : new int[] { 100, 200, 300 }) {
+                for (int speed : new int[] { 3, 5, 8 }) {
+                    for (int radius : new int[] { 0, 1, 2 }) {
+                        GameConfig config = GameConfig.DEFAULT.withFormation(formation[0], formation[1])
+                                .withAlienFire(fireDelay, Alien.FIRE_JITTER_TICKS).withBulletSpeed(speed)
+                                .withBlast(radius, Obstacle.BLAST_DEPTH);
+                        points.add(new Point(config, gamesPerPoint));
+                    }
+                }
+            }
+        }
+
+        Policy policy = new TrackingPolicy();
+        long nanos = run(points, gamesPerPoint, policy, threads);
+        for (Point point : points) {
+            report(point);
+        }
+        int games = points.size() * gamesPerPoint;
+        double gamesPerSecond = games / (nanos / 1e9);
+        System.out.printf(Locale.ROOT, "# %d games on %d threads in %.1f s: %.0f games/s, %.0f games/s/thread%n",
+                games, threads, nanos / 1e9, gamesPerSecond, gamesPerSecond / threads);
+
+        if (scaling) {
+            measureScaling(policy, Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * Plays every game of a batch.
+     *
+     * @return The wall-clock time taken in nanoseconds.
+     */
+
+    private static final long run(List<Point> points, int gamesPerPoint, Policy policy, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            pool.invoke(new GameTask(points, gamesPerPoint, policy, 0, points.size() * gamesPerPoint));
+            return System.nanoTime() - start;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Every point plays the same seeds, one per game index
+    private static final void play(Point point, int game, Policy policy) {
+        World world = new World(GameState.create(), point.config, 0x9E3779B97F4A7C15L * (game + 1));
+        while (!world.isGameOver() && world.getTickCount() < MAX_TICKS) {
+            world.step(policy.decide(world));
+        }
+        point.ticks[game] = (int) world.getTickCount();
+        point.scores[game] = world.getGameState().getScore();
+    }
+
+    private static final void report(Point point) {
+        int games = point.ticks.length;
+        double[] seconds = new double[games];
+        double[] scores = new double[games];
+        double[] killRates = new double[games];
+        int survived = 0;
+        for (int i = 0; i < games; i++) {
+            seconds[i] = point.ticks[i] * World.TICK_MILLIS / 1000.0;
+            scores[i] = point.scores[i];
+            // Every kill scores 10 points
+            killRates[i] = seconds[i] == 0 ? 0 : point.scores[i] / 10 / (seconds[i] / 60);
+            if (point.ticks[i] >= MAX_TICKS) {
+                survived++;
+            }
+        }
+        System.out.printf(Locale.ROOT, "%-48s survival s %s  score %s  kills/min %s  survived=%.0f%%%n",
+                point.config, summary(seconds), summary(scores), summary(killRates), 100.0 * survived / games);
+    }
+
+    // Mean and the 10th, 50th and 90th percentile
+    private static final String summary(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        double mean = 0;
+        for (double value : sorted) {
+            mean += value;
+        }
+        mean /= sorted.length;
+        return String.format(Locale.ROOT, "mean=%7.1f p10=%7.1f p50=%7.1f p90=%7.1f", mean,
+                percentile(sorted, 0.1), percentile(sorted, 0.5), percentile(sorted, 0.9));
+    }
+
+    private static final double percentile(double[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+
+    /**
+     * Times one fixed batch of games at doubling thread counts and prints the
+     * speedup over one thread.
+     */
+
+    private static final void measureScaling(Policy policy, int cores) {
+        double base = 0;
+        for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : cores + 1) {
+            List<Point> points = new ArrayList<>();
+            int games = 64 * threads;
+            points.add(new Point(GameConfig.DEFAULT, games));
+            long nanos = run(points, games, policy, threads);
+            double perThread = games / (nanos / 1e9) / threads;
+            if (threads == 1) {
+                base = perThread;
+            }
+            System.out.printf(Locale.ROOT, "# scaling threads=%d %.0f games/s/thread, efficiency %.0f%%%n", threads,
+                    perThread, 100 * perThread / base);
+        }
+    }
+}
@@ -0,0 +1,1086 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Micro benchmarks for the game's hot paths.
+ * Runs without a display and prints one line per measurement.
+ * Each case is warmed up before it is timed.
+ * When a file name is given as the first argument, the results are also
+ * written there as JSON so runs of different versions can be compared.
+ * The run also checks that a world tick costs more with more aliens, that
+ * the game loop ticks at a fixed rate however often the game is reset, that
+ * a world tick allocates nothing, that bullets hit the same targets at any
+ * tick rate, that clients of a GameServer stay in step with it, and that a
+ * HighScoreStore rebuilds its rankings from its log, and exits with status 1
+ * if not.
+ */
+
+public final class Benchmark {
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 200;
+    private static final long MIN_PHASE_NANOS = 500_000_000L;
+
+    // Ticks stepped per round of the rewind benchmark
+    private static final int TICKS_PER_ROUND = 100;
+
+    // Ticks a world is stepped before its ticks are timed: past the first
+    // volley of alien shots and until those shots have crossed the field
+    private static final int STEADY_TICKS = Alien.FIRE_DELAY_TICKS + Alien.FIRE_JITTER_TICKS
+            + World.HEIGHT / Bullet.BULLET_SPEED;
+
+    // Ticks the stress world is stepped before measuring, so its bullets
+    // have built up to a steady level
+    private static final int STRESS_RAMP_TICKS = 600;
+
+    // Ticks stepped by the allocation check, and games played to warm it up
+    private static final int ALLOCATION_TICKS = 10_000;
+    private static final int ALLOCATION_WARMUP_GAMES = 3;
+
+    // Tick rates the collision check steps its bullets at, the speed of the
+    // bullets in pixels per second, and the seconds each one flies
+    private static final int[] SWEEP_RATES = { 10, 15, 20, 30, 60, 100, 120, 144, 240 };
+    private static final int SWEEP_SPEED = 600;
+    private static final int SWEEP_SECONDS = 1;
+
+    // Network check: clients, ticks played, and the simulated link both
+    // ways
+    private static final int NET_CLIENTS = 2;
+    private static final int NET_TICKS = 300;
+    private static final double NET_LOSS = 0.05;
+    private static final int NET_LATENCY_MILLIS = 30;
+    private static final int NET_JITTER_MILLIS = 10;
+
+    // Balance of the network match, unlike the default so clients must take
+    // it from the server
+    private static final GameConfig NET_CONFIG = GameConfig.DEFAULT.withFormation(5, 8).withBulletSpeed(7)
+            .withObstacles(3);
+
+    // Fixed-rate check: resets, each followed by one simulated second
+    private static final int RATE_RESETS = 1000;
+
+    // Score store check: games recorded and the players they are spread over
+    private static final int SCORE_GAMES = 1_000_000;
+    private static final int SCORE_PLAYERS = 10_000;
+
+    // Sink for computed results so the JIT cannot drop the measured work
+    private static long blackhole;
+
+    private static final List<Result> results = new ArrayList<>();
+
+    /**
+     * One timed benchmark case.
+     */
+    private static final class Result {
+        private final String name;
+        private final String params;
+        private final double nanosPerOp;
+
+        private Result(String name, String params, double nanosPerOp) {
+            this.name = name;
+            this.params = params;
+            this.nanosPerOp = nanosPerOp;
+        }
+    }
+
+    public static final void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        for (int alienCount : new int[] { 20, 500, 5000 }) {
+            benchmarkBroadphase(alienCount, alienCount, 5);
+        }
+        boolean stepsScale = checkStepScaling(benchmarkWorldStep(4, 5), benchmarkWorldStep(10, 50),
+                benchmarkWorldStep(50, 100));
+        benchmarkBulletUpdate(100_000);
+        benchmarkEntityStore(100_000);
+        benchmarkIntersects();
+        benchmarkRenderDispatch(20, 100);
+        benchmarkFrame();
+        benchmarkRewind(4, 5);
+        benchmarkRewind(50, 100);
+        benchmarkStress();
+        boolean rateFixed = checkFixedRate();
+        boolean allocationFree = checkAllocations();
+        boolean sweepsAgree = checkSweptCollisions();
+        boolean networkInSync = checkNetworkPlay();
+        boolean scoresKept = checkHighScores();
+        System.out.println("# blackhole " + blackhole);
+
+        if (args.length > 0) {
+            writeJson(args[0]);
+        }
+        if (!stepsScale || !rateFixed || !allocationFree || !sweepsAgree || !networkInSync || !scoresKept) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares the nested collision loops against the spatial grid for one
+     * tick's worth of alien, bullet and obstacle pairs.
+     *
+     * @param alienCount    The number of aliens on the field.
+     * @param bulletCount   The number of player bullets on the field.
+     * @param obstacleCount The number of obstacles on the field.
+     */
+
+    private static final void benchmarkBroadphase(int alienCount, int bulletCount, int obstacleCount) {
+        Random random = new Random(42);
+        List<Alien> aliens = new ArrayList<>();
+        List<Bullet> bullets = new ArrayList<>();
+        List<Obstacle> obstacles = new ArrayList<>();
+        for (int i = 0; i < alienCount; i++) {
+            aliens.add(GameObjectFactory.createAlien(random.nextInt(770), random.nextInt(570)));
+        }
+        for (int i = 0; i < bulletCount; i++) {
+            bullets.add(GameObjectFactory.createBullet(random.nextInt(795), random.nextInt(595), -1));
+        }
+        for (int i = 0; i < obstacleCount; i++) {
+            obstacles.add(GameObjectFactory.createObstacle());
+        }
+
+        String params = "aliens=" + alienCount + " bullets=" + bulletCount;
+        double nested = measure("broadphase.nested", params, () -> nestedPass(aliens, bullets, obstacles));
+        SpatialGrid alienGrid = new SpatialGrid(800, 600, 50);
+        SpatialGrid obstacleGrid = new SpatialGrid(800, 600, 50);
+        double grid = measure("broadphase.grid", params,
+                () -> gridPass(aliens, bullets, obstacles, alienGrid, obstacleGrid));
+
+        System.out.printf("broadphase %s speedup=%.1fx%n", params, nested / grid);
+    }
+
+    private static final long nestedPass(List<Alien> aliens, List<Bullet> bullets, List<Obstacle> obstacles) {
+        long hits = 0;
+        for (Obstacle obstacle : obstacles) {
+            for (Bullet bullet : bullets) {
+                if (obstacle.intersects(bullet)) {
+                    hits++;
+                }
+            }
+            for (Alien alien : aliens) {
+                if (obstacle.intersects(alien)) {
+                    hits++;
+                }
+            }
+        }
+        for (Alien alien : aliens) {
+            for (Bullet bullet : bullets) {
+                if (alien.intersects(bullet)) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static final long gridPass(List<Alien> aliens, List<Bullet> bullets, List<Obstacle> obstacles,
+            SpatialGrid alienGrid, SpatialGrid obstacleGrid) {
+        long hits = 0;
+        alienGrid.clear();
+        for (int i = 0; i < aliens.size(); i++) {
+            Alien alien = aliens.get(i);
+            alienGrid.insert(i, alien.getX(), alien.getY(), Alien.ALIEN_SIZE, Alien.ALIEN_SIZE);
+        }
+        obstacleGrid.clear();
+        for (int i = 0; i < obstacles.size(); i++) {
+            Obstacle obstacle = obstacles.get(i);
+            obstacleGrid.insert(i, obstacle.getX(), obstacle.getY(), Obstacle.WIDTH, Obstacle.HEIGHT);
+        }
+        for (Bullet bullet : bullets) {
+            int candidates = obstacleGrid.query(bullet.getX(), bullet.getY(), Bullet.BULLET_SIZE, Bullet.BULLET_SIZE);
+            for (int c = 0; c < candidates; c++) {
+                if (obstacles.get(obstacleGrid.candidate(c)).intersects(bullet)) {
+                    hits++;
+                }
+            }
+            candidates = alienGrid.query(bullet.getX(), bullet.getY(), Bullet.BULLET_SIZE, Bullet.BULLET_SIZE);
+            for (int c = 0; c < candidates; c++) {
+                if (aliens.get(alienGrid.candidate(c)).intersects(bullet)) {
+                    hits++;
+                }
+            }
+        }
+        for (Obstacle obstacle : obstacles) {
+            int candidates = alienGrid.query(obstacle.getX(), obstacle.getY(), Obstacle.WIDTH, Obstacle.HEIGHT);
+            for (int c = 0; c < candidates; c++) {
+                if (obstacle.intersects(aliens.get(alienGrid.candidate(c)))) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Times full world ticks of one live world with a formation of the given
+     * size. The world is stepped past the first volley of alien shots and
+     * until those shots have crossed the field before it is measured, so the
+     * timed ticks fire aliens and sweep their bullets as in a game under way.
+     * The player cannot be hit and the formation does not descend, so the
+     * load holds for as long as the case runs.
+     *
+     * @param rows    The number of rows in the formation.
+     * @param columns The number of aliens in each row.
+     * @return The mean time of one tick in nanoseconds.
+     */
+
+    private static final double benchmarkWorldStep(int rows, int columns) {
+        GameConfig config = GameConfig.DEFAULT.withFormation(rows, columns).withFormationDrop(0)
+                .withInvinciblePlayer(true);
+        World world = new World(GameState.create(), config, 42);
+        for (int i = 0; i < STEADY_TICKS; i++) {
+            world.step();
+        }
+        String params = "aliens=" + world.getFormation().getAliveCount() + " bullets="
+                + world.getAlienBullets().size();
+        return measure("world.step", params, () -> {
+            world.step();
+            return world.getTickCount();
+        });
+    }
+
+    /**
+     * Checks that a world tick costs more the more aliens it has.
+     *
+     * @param nanos The mean tick times of formations of increasing size.
+     * @return true if every tick time is above the one before it.
+     */
+
+    private static final boolean checkStepScaling(double... nanos) {
+        boolean grows = true;
+        for (int i = 1; i < nanos.length; i++) {
+            grows &= nanos[i] > nanos[i - 1];
+        }
+        System.out.printf("%-28s %-24s %12s%n", "check.step.scaling", "cases=" + nanos.length,
+                grows ? "grows" : "flat");
+        if (!grows) {
+            System.out.println("# FAILED: world.step does not cost more with more aliens");
+        }
+        return grows;
+    }
+
+    /**
+     * Builds a world with a formation of the given size and a stream of
+     * player bullets.
+     */
+
+    private static final World createWorld(int rows, int columns) {
+        World world = new World(GameState.create(), rows, columns);
+        for (int i = 0; i < 20; i++) {
+            world.movePlayerLeft();
+            world.firePlayerBullet();
+        }
+        return world;
+    }
+
+    /**
+     * Compares moving bullets held as objects in a list against the same
+     * bullets in a BulletStore. Bullets fly between two far apart bounds in
+     * both cases so none are removed while measuring.
+     *
+     * @param count The number of live bullets.
+     */
+
+    private static final void benchmarkBulletUpdate(int count) {
+        Random random = new Random(11);
+        List<Bullet> list = new ArrayList<>();
+        BulletStore store = new BulletStore(count);
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(795);
+            int y = random.nextInt(595);
+            int direction = random.nextBoolean() ? 1 : -1;
+            list.add(GameObjectFactory.createBullet(x, y, direction));
+            store.spawn(x, y, direction);
+        }
+        // Shuffle the list so objects are not laid out in allocation order
+        Collections.shuffle(list, random);
+
+        String params = "bullets=" + count;
+        measure("bullets.list", params, () -> {
+            long sum = 0;
+            for (int i = 0; i < list.size(); i++) {
+                Bullet bullet = list.get(i);
+                bullet.update();
+                sum += bullet.getY();
+            }
+            return sum;
+        });
+        measure("bullets.store", params, () -> {
+            store.update(Integer.MIN_VALUE, Integer.MAX_VALUE, Bullet.BULLET_SPEED);
+            return store.getY(0);
+        });
+    }
+
+    /**
+     * Times spawning and despawning bullets by handle in an EntityStore, and
+     * a query that walks the vertical position of every bullet in two lanes.
+     *
+     * @param count The number of live bullets in each lane.
+     */
+
+    private static final void benchmarkEntityStore(int count) {
+        Random random = new Random(13);
+        EntityStore entities = new EntityStore();
+        BulletStore[] lanes = { new BulletStore(entities, count), new BulletStore(entities, count) };
+        long[] handles = new long[count];
+        for (int i = 0; i < count; i++) {
+            for (BulletStore lane : lanes) {
+                lane.spawn(random.nextInt(795), random.nextInt(595), random.nextBoolean() ? 1 : -1);
+            }
+            handles[i] = lanes[0].getHandle(i);
+        }
+
+        // Despawn a random bullet by its handle and spawn one in its place
+        String params = "bullets=" + 2 * count;
+        int[] next = { 0 };
+        measure("entities.churn", params, count, () -> {
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                int victim = random.nextInt(count);
+                entities.despawn(handles[victim]);
+                lanes[0].spawn(next[0]++ & 511, victim, 1);
+                handles[victim] = lanes[0].getHandle(lanes[0].size() - 1);
+                sum += entities.getRow(handles[victim]);
+            }
+            return sum;
+        });
+
+        Archetype[] matches = new Archetype[entities.getArchetypeCount()];
+        measure("entities.query", params, () -> {
+            long sum = 0;
+            int archetypes = entities.query(Component.bit(Component.Y), matches);
+            for (int a = 0; a < archetypes; a++) {
+                int[] ys = matches[a].column(Component.Y);
+                for (int row = 0, size = matches[a].size(); row < size; row++) {
+                    sum += ys[row];
+                }
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Times each narrow-phase intersects pair on its own.
+     */
+
+    private static final void benchmarkIntersects() {
+        int count = 1024;
+        Random random = new Random(3);
+        Alien[] aliens = new Alien[count];
+        Bullet[] bullets = new Bullet[count];
+        Obstacle[] obstacles = new Obstacle[count];
+        Player[] players = new Player[count];
+        for (int i = 0; i < count; i++) {
+            aliens[i] = GameObjectFactory.createAlien(random.nextInt(770), 350 + random.nextInt(200));
+            bullets[i] = GameObjectFactory.createBullet(random.nextInt(795), 350 + random.nextInt(200), 1);
+            obstacles[i] = GameObjectFactory.createObstacle();
+            players[i] = GameObjectFactory.createPlayer(random.nextInt(760), 350 + random.nextInt(200));
+        }
+
+        measurePairs("intersects.alien-bullet", count, i -> aliens[i].intersects(bullets[i]));
+        measurePairs("intersects.alien-obstacle", count, i -> aliens[i].intersects(obstacles[i]));
+        measurePairs("intersects.obstacle-bullet", count, i -> obstacles[i].intersects(bullets[i]));
+        measurePairs("intersects.obstacle-alien", count, i -> obstacles[i].intersects(aliens[i]));
+        measurePairs("intersects.player-alien", count, i -> players[i].intersects(aliens[i]));
+        measurePairs("intersects.player-bullet", count, i -> players[i].intersects(bullets[i]));
+        measurePairs("intersects.player-obstacle", count, i -> players[i].intersects(obstacles[i]));
+    }
+
+    private interface PairTest {
+        boolean test(int index);
+    }
+
+    private static final void measurePairs(String name, int count, PairTest pair) {
+        measure(name, "pairs=" + count, count, () -> {
+            long hits = 0;
+            for (int i = 0; i < count; i++) {
+                if (pair.test(i)) {
+                    hits++;
+                }
+            }
+            return hits;
+        });
+    }
+
+    /**
+     * Compares drawing a world through the GameRenderer batches against
+     * calling every entity's own render method and drawing the score text,
+     * as frames were drawn before batching. The snapshot is captured on the
+     * simulation thread in the game, so it is timed on its own rather than
+     * as part of a batched frame.
+     *
+     * @param rows    The number of rows in the formation.
+     * @param columns The number of aliens in each row.
+     */
+
+    private static final void benchmarkRenderDispatch(int rows, int columns) {
+        BufferedImage image = new BufferedImage(World.WIDTH, World.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        GameRenderer renderer = new GameRenderer();
+        World world = createWorld(rows, columns);
+        Formation formation = world.getFormation();
+
+        String params = "aliens=" + formation.getAliveCount();
+        measure("render.per-entity", params, () -> {
+            world.getPlayer().render(g2d);
+            for (Obstacle obstacle : world.getObstacles()) {
+                obstacle.render(g2d);
+            }
+            for (int slot = formation.nextAlive(0); slot != -1; slot = formation.nextAlive(slot + 1)) {
+                formation.getAlien(slot).render(g2d);
+            }
+            BulletStore bullets = world.getPlayerBullets();
+            for (int i = 0; i < bullets.size(); i++) {
+                bullets.get(i).render(g2d);
+            }
+            g2d.drawString("Score: " + world.getGameState().getScore(), 10, 20);
+            g2d.drawString("Lives: " + world.getGameState().getLives(), 10, 40);
+            return bullets.size();
+        });
+        WorldSnapshot snapshot = new WorldSnapshot();
+        measure("snapshot.capture", params, () -> {
+            snapshot.capture(world, 0);
+            return snapshot.getAlienCount();
+        });
+        snapshot.capture(world, 0);
+        measure("render.batched", params, () -> {
+            renderer.renderWorld(g2d, snapshot, 1);
+            return snapshot.getPlayerBullets().size();
+        });
+        g2d.dispose();
+    }
+
+    /**
+     * Compares redrawing the whole frame against the incremental renderer for
+     * a world that advances one tick per frame, and reports the pixels each
+     * approach writes per frame.
+     */
+
+    private static final void benchmarkFrame() {
+        BufferedImage image = new BufferedImage(World.WIDTH, World.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+
+        World[] fullWorld = { createWorld(4, 5) };
+        WorldSnapshot fullSnapshot = new WorldSnapshot();
+        GameRenderer gameRenderer = new GameRenderer();
+        measure("frame.full", "pixels/frame=" + World.WIDTH * World.HEIGHT, () -> {
+            advance(fullWorld);
+            fullSnapshot.capture(fullWorld[0], 0);
+            g2d.setColor(Color.BLACK);
+            g2d.fillRect(0, 0, World.WIDTH, World.HEIGHT);
+            gameRenderer.renderWorld(g2d, fullSnapshot, 1);
+            return image.getRGB(0, 0);
+        });
+
+        World[] world = { createWorld(4, 5) };
+        WorldSnapshot snapshot = new WorldSnapshot();
+        IncrementalRenderer renderer = new IncrementalRenderer(new GameRenderer(), Color.BLACK, World.WIDTH,
+                World.HEIGHT);
+        long pixels = 0;
+        for (int i = 0; i < 1000; i++) {
+            advance(world);
+            snapshot.capture(world[0], 0);
+            renderer.render(g2d, snapshot, 1);
+            pixels += renderer.getPixelsTouched();
+        }
+        measure("frame.incremental", "pixels/frame=" + pixels / 1000, () -> {
+            advance(world);
+            snapshot.capture(world[0], 0);
+            renderer.render(g2d, snapshot, 1);
+            return renderer.getPixelsTouched();
+        });
+        g2d.dispose();
+    }
+
+    /**
+     * Measures the cost of capturing a tick into a rewind buffer holding ten
+     * seconds, and of restoring a world to a random tick it holds.
+     *
+     * @param rows    The number of formation rows.
+     * @param columns The number of formation columns.
+     */
+
+    private static final void benchmarkRewind(int rows, int columns) {
+        RewindBuffer rewind = new RewindBuffer(1 << 20, 1000, 100);
+        World[] world = { createWorld(rows, columns) };
+        long[] elapsed = new long[1];
+        LongSupplier round = () -> {
+            for (int i = 0; i < TICKS_PER_ROUND; i++) {
+                if (world[0].isGameOver()) {
+                    world[0] = createWorld(rows, columns);
+                }
+                world[0].step();
+                long start = System.nanoTime();
+                rewind.capture(world[0]);
+                elapsed[0] += System.nanoTime() - start;
+            }
+            return rewind.getLastTick();
+        };
+        for (int i = 0; i < WARMUP_ROUNDS / 10; i++) {
+            blackhole += round.getAsLong();
+        }
+        elapsed[0] = 0;
+        int rounds = MEASURED_ROUNDS / 10;
+        for (int i = 0; i < rounds; i++) {
+            blackhole += round.getAsLong();
+        }
+        long held = rewind.getLastTick() - rewind.getFirstTick() + 1;
+        String params = "aliens=" + rows * columns + " state=" + world[0].getStateSize() + "B bytes/tick="
+                + rewind.getBytesUsed() / held;
+        record("rewind.capture", params, elapsed[0] / (double) (rounds * TICKS_PER_ROUND));
+
+        World restored = createWorld(rows, columns);
+        Random random = new Random(42);
+        measure("rewind.restore", "aliens=" + rows * columns + " ticks=" + held, () -> {
+            long tick = rewind.getFirstTick() + random.nextInt((int) held);
+            rewind.restore(restored, tick);
+            return restored.getTickCount();
+        });
+    }
+
+    /**
+     * Times a tick of the stress configuration once its bullets have built
+     * up, and an incremental frame of it, against the 10 ms a tick and the
+     * 16.7 ms a frame may take at 100 ticks and 60 frames per second.
+     */
+
+    private static final void benchmarkStress() {
+        World world = new World(GameState.create(), GameConfig.STRESS, 42);
+        for (int i = 0; i < STRESS_RAMP_TICKS; i++) {
+            world.step();
+        }
+        String params = "aliens=" + world.getFormation().getAliveCount() + " bullets="
+                + world.getAlienBullets().size();
+        measure("stress.step", params, () -> {
+            world.step();
+            return world.getTickCount();
+        });
+
+        BufferedImage image = new BufferedImage(World.WIDTH, World.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        WorldSnapshot snapshot = new WorldSnapshot();
+        snapshot.capture(world, 0);
+        IncrementalRenderer renderer = new IncrementalRenderer(new GameRenderer(), Color.BLACK, World.WIDTH,
+                World.HEIGHT);
+        measure("stress.frame", params, () -> {
+            renderer.render(g2d, snapshot, 1);
+            return renderer.getPixelsTouched();
+        });
+        g2d.dispose();
+    }
+
+    /**
+     * Checks that the game loop runs exactly the configured number of ticks
+     * per second, however often the game is reset. A GameLoop stepping a
+     * world is driven by a simulated clock in frames of random length; the
+     * world is reset RATE_RESETS times, and after each reset the ticks of one
+     * simulated second are counted.
+     *
+     * @return true if every second had exactly GameFrame.TICKS_PER_SECOND
+     *         ticks.
+     */
+
+    private static final boolean checkFixedRate() {
+        World world = createWorld(4, 5);
+        long[] ticks = new long[1];
+        GameLoop loop = new GameLoop(GameFrame.TICKS_PER_SECOND, 60, () -> {
+            ticks[0]++;
+            world.step();
+        }, alpha -> {
+        });
+        Random random = new Random(3);
+        long second = 1_000_000_000L;
+        long now = 0;
+        long fewest = Long.MAX_VALUE;
+        long most = 0;
+        loop.resetClock(now);
+        for (int reset = 0; reset < RATE_RESETS; reset++) {
+            world.resetGame();
+            ticks[0] = 0;
+            long end = now + second;
+            while (now < end) {
+                // Frames of 1 to 40 ms, the last one ending on the second
+                now = Math.min(end, now + 1_000_000L + random.nextInt(39_000_000));
+                loop.advance(now);
+            }
+            fewest = Math.min(fewest, ticks[0]);
+            most = Math.max(most, ticks[0]);
+        }
+        System.out.printf("%-28s %-24s %12s ticks/s%n", "check.fixed.rate", "resets=" + RATE_RESETS,
+                fewest == most ? String.valueOf(fewest) : fewest + ".." + most);
+        if (fewest != GameFrame.TICKS_PER_SECOND || most != GameFrame.TICKS_PER_SECOND) {
+            System.out.println("# FAILED: expected " + GameFrame.TICKS_PER_SECOND + " ticks in every second");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that stepping a world allocates nothing. A scripted player plays
+     * a few games first so the JIT has settled, then ALLOCATION_TICKS ticks
+     * are stepped one at a time and the bytes the thread allocated during
+     * each are summed. Ticks that spawn a wave or respawn the player may
+     * allocate and are left out, as are new games. A profiler is attached
+     * but switched off, as in the game.
+     *
+     * @return true if the counted ticks allocated nothing, or if the JVM
+     *         cannot count allocations.
+     */
+
+    private static final boolean checkAllocations() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            System.out.println("# allocation counting is not supported, check skipped");
+            return true;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        BalanceTuner.Policy policy = new BalanceTuner.TrackingPolicy();
+        TickProfiler profiler = new TickProfiler();
+        long seed = 0;
+
+        for (int game = 0; game < ALLOCATION_WARMUP_GAMES; game++) {
+            World world = new World(GameState.create(), GameConfig.DEFAULT, ++seed);
+            world.setProfiler(profiler);
+            while (!world.isGameOver() && world.getTickCount() < ALLOCATION_TICKS) {
+                world.step(policy.decide(world));
+            }
+        }
+
+        World world = null;
+        long allocated = 0;
+        int skipped = 0;
+        for (int i = 0; i < ALLOCATION_TICKS; i++) {
+            if (world == null || world.isGameOver()) {
+                world = new World(GameState.create(), GameConfig.DEFAULT, ++seed);
+                world.setProfiler(profiler);
+            }
+            int input = policy.decide(world);
+            int wave = world.getWave();
+            int lives = world.getGameState().getLives();
+            long before = threads.getCurrentThreadAllocatedBytes();
+            world.step(input);
+            long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+            if (world.getWave() != wave || world.getGameState().getLives() != lives) {
+                skipped++;
+            } else {
+                allocated += bytes;
+            }
+        }
+        System.out.printf("%-28s %-24s %12d bytes%n", "alloc.world.step",
+                "ticks=" + ALLOCATION_TICKS + " spawns=" + skipped, allocated);
+        if (allocated != 0) {
+            System.out.println("# FAILED: world.step allocated " + allocated + " bytes outside spawns");
+        }
+        return allocated == 0;
+    }
+
+    /**
+     * Checks that what a bullet hits does not depend on how far it moves per
+     * tick. Bullets are fired up from the player and down from the top of
+     * the field through a still scene of aliens and eroded shields, stepping
+     * at each of SWEEP_RATES ticks per second, and each must stop at the
+     * same target, cell row and height as a bullet covering its whole flight
+     * in one move. Bullets tested only where they stand, as before swept
+     * collisions, are counted at the slowest rate for comparison.
+     *
+     * @return true if every rate agrees with the single move.
+     */
+
+    private static final boolean checkSweptCollisions() {
+        Formation formation = GameObjectFactory.createFormation(4, 5, 50, 50, 100, 50, 0);
+        for (int slot : new int[] { 1, 7, 8, 13, 17 }) {
+            formation.kill(slot);
+        }
+        int[] slots = new int[formation.getSlotCount()];
+        List<Obstacle> obstacles = new ArrayList<>();
+        SpatialGrid grid = new SpatialGrid(World.WIDTH, World.HEIGHT, 50);
+        for (int x : new int[] { 80, 260, 395, 610 }) {
+            Obstacle obstacle = new Obstacle(x);
+            obstacle.erode(x + 10, obstacle.getY(), 10, 30);
+            obstacle.erode(x + 30, obstacle.getY() + 25, 15, 25);
+            grid.insert(obstacles.size(), x, obstacle.getY(), Obstacle.WIDTH, Obstacle.HEIGHT);
+            obstacles.add(obstacle);
+        }
+        Player player = GameObjectFactory.createPlayer(400, 500);
+        BulletSweep sweep = new BulletSweep();
+
+        int bullets = 0;
+        int mismatches = 0;
+        int tunnelled = 0;
+        for (int direction = -1; direction <= 1; direction += 2) {
+            int startY = direction < 0 ? player.getY() : 0;
+            int distance = direction * SWEEP_SPEED * SWEEP_SECONDS;
+            for (int x = 0; x < World.WIDTH; x += 3) {
+                bullets++;
+                long expected = fly(sweep, formation, slots, obstacles, grid, player, x, startY, distance, 1);
+                for (int rate : SWEEP_RATES) {
+                    long actual = fly(sweep, formation, slots, obstacles, grid, player, x, startY, distance,
+                            rate * SWEEP_SECONDS);
+                    if (actual != expected) {
+                        mismatches++;
+                        System.out.println("# FAILED: bullet at x=" + x + " direction=" + direction + " hit "
+                                + Long.toHexString(actual) + " at " + rate + " Hz, " + Long.toHexString(expected)
+                                + " in one move");
+                    }
+                }
+                int kind = (int) (expected >>> 48);
+                int target = (int) (expected >>> 32 & 0xffff) - 1;
+                if (!flyDiscretely(formation, obstacles, player, x, startY, distance, SWEEP_RATES[0], kind,
+                        target)) {
+                    tunnelled++;
+                }
+            }
+        }
+        System.out.printf("%-28s %-24s %12d mismatches%n", "check.swept.collisions",
+                "bullets=" + bullets + " rates=" + SWEEP_RATES.length, mismatches);
+        System.out.printf("%-28s %-24s %12d bullets%n", "check.discrete.collisions", "rate=" + SWEEP_RATES[0],
+                tunnelled);
+        return mismatches == 0;
+    }
+
+    // Flies a bullet in ticks equal steps rounded to whole pixels, as the
+    // game moves it, and packs what it first hit and where into a long
+    private static final long fly(BulletSweep sweep, Formation formation, int[] slots, List<Obstacle> obstacles,
+            SpatialGrid grid, Player player, int x, int y, int distance, int ticks) {
+        for (int k = 0; k < ticks; k++) {
+            int dy = (int) (Math.floorDiv((long) (k + 1) * distance, ticks) - Math.floorDiv((long) k * distance,
+                    ticks));
+            sweep.begin(x, y, dy);
+            sweep.testObstacles(obstacles, grid);
+            if (dy < 0) {
+                sweep.testFormation(formation, slots);
+            } else {
+                sweep.testPlayer(player);
+            }
+            if (sweep.getKind() != BulletSweep.NOTHING) {
+                long impactY = Math.round(y + sweep.getTime() * dy);
+                return (long) sweep.getKind() << 48 | (long) (sweep.getTarget() + 1) << 32
+                        | (long) (sweep.getRow() + 1) << 24 | (impactY & 0xffffff);
+            }
+            y += dy;
+        }
+        return 0;
+    }
+
+    // Flies a bullet testing it only where it stands after each step, and
+    // tells whether it hits the same target as the swept bullet
+    private static final boolean flyDiscretely(Formation formation, List<Obstacle> obstacles, Player player, int x,
+            int y, int distance, int ticks, int kind, int target) {
+        for (int k = 0; k <= ticks; k++) {
+            for (int i = 0; i < obstacles.size(); i++) {
+                if (obstacles.get(i).overlapsCells(x, y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE)) {
+                    return kind == BulletSweep.OBSTACLE && target == i;
+                }
+            }
+            if (distance < 0) {
+                int slot = formation.findHit(x, y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE);
+                if (slot != -1) {
+                    return kind == BulletSweep.ALIEN && target == slot;
+                }
+            } else if (BulletSweep.timeOfImpact(x, y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE, 0, 0, player.getX(),
+                    player.getY(), Player.PLAYER_SIZE, Player.PLAYER_SIZE) == 0) {
+                return kind == BulletSweep.PLAYER;
+            }
+            y += (int) (Math.floorDiv((long) (k + 1) * distance, ticks) - Math.floorDiv((long) k * distance, ticks));
+        }
+        return kind == BulletSweep.NOTHING;
+    }
+
+    /**
+     * Plays a match on a GameServer over 127.0.0.1 with one player and a
+     * watcher, both ways through a LossyLink, and reports the bytes per
+     * client per second. Both clients must play by the balance of the
+     * server, which is not the default one, every state a client decodes
+     * must pass its checksum, and both clients must keep up with the server
+     * despite the lost datagrams. A server for the stress balance, whose
+     * states do not fit in a datagram, must be refused.
+     *
+     * @return true if the clients stayed in step and the stress server was
+     *         refused.
+     */
+
+    private static final boolean checkNetworkPlay() {
+        World world = new World(GameState.create(), NET_CONFIG, 5);
+        GameServer server;
+        try {
+            server = new GameServer(world, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    new LossyLink(NET_LOSS, NET_LATENCY_MILLIS, NET_JITTER_MILLIS, 0), GameFrame.TICKS_PER_SECOND);
+        } catch (IOException e) {
+            System.out.println("# networking is not available, check skipped: " + e.getMessage());
+            return true;
+        }
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                System.out.println("# FAILED: server stopped: " + e.getMessage());
+            }
+        }, "server");
+        serverThread.start();
+
+        GameClient[] clients = new GameClient[NET_CLIENTS];
+        boolean inSync = true;
+        long start = System.nanoTime();
+        try {
+            SocketAddress address = server.getLocalAddress();
+            for (int i = 0; i < NET_CLIENTS; i++) {
+                clients[i] = GameClient.connect(address,
+                        new LossyLink(NET_LOSS, NET_LATENCY_MILLIS, NET_JITTER_MILLIS, i + 1), GameState.create(),
+                        5_000_000_000L);
+            }
+            start = System.nanoTime();
+            BalanceTuner.Policy policy = new BalanceTuner.TrackingPolicy();
+            long tickNanos = 1_000_000_000L / GameFrame.TICKS_PER_SECOND;
+            for (int tick = 1; tick <= NET_TICKS; tick++) {
+                for (GameClient client : clients) {
+                    client.tick(client.isPlayer() ? policy.decide(client.getWorld()) : 0);
+                }
+                LockSupport.parkNanos(start + tick * tickNanos - System.nanoTime());
+            }
+        } catch (IOException e) {
+            System.out.println("# FAILED: could not join the match: " + e.getMessage());
+            inSync = false;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.stop();
+        try {
+            serverThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long serverTick = world.getTickCount();
+        for (int i = 0; i < NET_CLIENTS && inSync; i++) {
+            GameClient client = clients[i];
+            String params = (client.isPlayer() ? "player" : "watcher") + " loss=" + (int) (NET_LOSS * 100) + "%";
+            System.out.printf("%-28s %-24s %12.0f B/s%n", "net.client.down", params,
+                    client.getBytesReceived() / seconds);
+            System.out.printf("%-28s %-24s %12.0f B/s%n", "net.client.up", params, client.getBytesSent() / seconds);
+            System.out.printf("%-28s %-24s %12d states%n", "net.client.corrections", params,
+                    client.getCorrections());
+            client.close();
+            if (!sameConfig(client.getWorld().getConfig(), NET_CONFIG)) {
+                System.out.println("# FAILED: client " + i + " plays by " + client.getWorld().getConfig()
+                        + " instead of " + NET_CONFIG);
+                inSync = false;
+            }
+            if (client.getBadStates() != 0 || serverTick - client.getLatestTick() > GameServer.HISTORY
+                    || client.getStatesReceived() < NET_TICKS / 2) {
+                System.out.println("# FAILED: client " + i + " fell out of step: " + client.getStatesReceived()
+                        + " states, " + client.getBadStates() + " bad, tick " + client.getLatestTick()
+                        + " of " + serverTick);
+                inSync = false;
+            }
+        }
+
+        try {
+            new GameServer(new World(GameState.create(), GameConfig.STRESS, 5),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new LossyLink(0, 0, 0, 0),
+                    GameFrame.TICKS_PER_SECOND);
+            System.out.println("# FAILED: a server was opened for states larger than a datagram");
+            inSync = false;
+        } catch (IllegalArgumentException e) {
+            System.out.printf("%-28s %-24s %12s%n", "net.server.stress", "refused", "ok");
+        } catch (IOException e) {
+            System.out.println("# FAILED: " + e.getMessage());
+            inSync = false;
+        }
+        return inSync;
+    }
+
+    private static final boolean sameConfig(GameConfig a, GameConfig b) {
+        ByteBuffer first = ByteBuffer.allocate(GameConfig.SIZE);
+        ByteBuffer second = ByteBuffer.allocate(GameConfig.SIZE);
+        a.write(first);
+        b.write(second);
+        return first.flip().equals(second.flip());
+    }
+
+    /**
+     * Records SCORE_GAMES random scores in a new HighScoreStore, reopens it
+     * and checks that the rebuilt rankings match the ones kept while
+     * recording and the best scores found by sorting them all. Then one
+     * record is damaged and half a record appended, as a crash during a
+     * write would leave, and the store must skip the first, cut off the
+     * second, and keep recording after the last good record. Prints how fast
+     * scores are written and the log is read back.
+     *
+     * @return true if every ranking matched.
+     */
+
+    private static final boolean checkHighScores() {
+        Path file;
+        try {
+            file = Files.createTempFile("scores", ".log");
+            Files.delete(file);
+        } catch (IOException e) {
+            System.out.println("# no temporary file, check skipped: " + e.getMessage());
+            return true;
+        }
+        try {
+            Random random = new Random(7);
+            int[] scores = new int[SCORE_GAMES];
+            String params = "games=" + SCORE_GAMES + " players=" + SCORE_PLAYERS;
+            long start = System.nanoTime();
+            HighScoreStore written = new HighScoreStore(file);
+            try (written) {
+                for (int i = 0; i < SCORE_GAMES; i++) {
+                    scores[i] = random.nextInt(1_000_000);
+                    String player = "player" + random.nextInt(SCORE_PLAYERS);
+                    // The queue is full whenever the writer is forcing a batch
+                    while (!written.record(player, scores[i], 1, i) && !written.isFailed()) {
+                        LockSupport.parkNanos(100_000);
+                    }
+                }
+            }
+            // Closing waited for every score to be written and ranked
+            List<HighScore> writtenTop = written.getTop(HighScoreStore.TOP_SCORES);
+            List<HighScore> writtenPlayer = written.getTop("player0", HighScoreStore.PLAYER_SCORES);
+            System.out.printf("%-28s %-24s %12.0f games/s%n", "scores.write", params,
+                    SCORE_GAMES / ((System.nanoTime() - start) / 1e9));
+
+            start = System.nanoTime();
+            boolean kept;
+            try (HighScoreStore store = new HighScoreStore(file)) {
+                record("scores.rebuild", params, (System.nanoTime() - start) / (double) SCORE_GAMES);
+                Arrays.sort(scores);
+                kept = store.getGames() == SCORE_GAMES && store.getPlayerCount() == SCORE_PLAYERS
+                        && store.getTop(HighScoreStore.TOP_SCORES).toString().equals(writtenTop.toString())
+                        && store.getTop("player0", HighScoreStore.PLAYER_SCORES).toString()
+                                .equals(writtenPlayer.toString());
+                for (int i = 0; i < HighScoreStore.TOP_SCORES && kept; i++) {
+                    kept = writtenTop.get(i).getScore() == scores[SCORE_GAMES - 1 - i];
+                }
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer damaged = ByteBuffer.allocate(1);
+                channel.read(damaged, HighScoreStore.HEADER_SIZE + 10);
+                damaged.put(0, (byte) ~damaged.get(0));
+                channel.write(damaged.rewind(), HighScoreStore.HEADER_SIZE + 10);
+                channel.write(ByteBuffer.allocate(HighScoreStore.RECORD_SIZE / 2), channel.size());
+            }
+            try (HighScoreStore store = new HighScoreStore(file)) {
+                kept &= store.getGames() == SCORE_GAMES - 1 && store.getSkippedRecords() == 1
+                        && store.getTruncatedBytes() == HighScoreStore.RECORD_SIZE / 2;
+                store.record("player0", Integer.MAX_VALUE, 1, 0);
+            }
+            try (HighScoreStore store = new HighScoreStore(file)) {
+                kept &= store.getGames() == SCORE_GAMES && store.getTruncatedBytes() == 0
+                        && store.getTop(1).get(0).getScore() == Integer.MAX_VALUE;
+            }
+            if (!kept) {
+                System.out.println("# FAILED: the score log did not rebuild the rankings it was written with");
+            }
+            return kept;
+        } catch (IOException e) {
+            System.out.println("# FAILED: score log: " + e.getMessage());
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.out.println("# could not delete " + file);
+            }
+        }
+    }
+
+    // Steps a benchmark world, starting a new one once the game is over
+    private static final void advance(World[] world) {
+        if (world[0].isGameOver()) {
+            world[0] = createWorld(4, 5);
+        }
+        world[0].step();
+    }
+
+    /**
+     * Times a task, records the mean duration of one round and prints it.
+     *
+     * @param name   The name of the benchmark case.
+     * @param params A short description of the case parameters.
+     * @param task   The work for a single round.
+     * @return The mean time per round in nanoseconds.
+     */
+
+    private static final double measure(String name, String params, LongSupplier task) {
+        return measure(name, params, 1, task);
+    }
+
+    /**
+     * Times a task that performs several operations per round, and records
+     * the mean duration of one operation.
+     *
+     * @param name        The name of the benchmark case.
+     * @param params      A short description of the case parameters.
+     * @param opsPerRound The number of operations in one round.
+     * @param task        The work for a single round.
+     * @return The mean time per operation in nanoseconds.
+     */
+
+    private static final double measure(String name, String params, int opsPerRound, LongSupplier task) {
+        // Run for a minimum number of rounds and a minimum time, so cheap cases
+        // are compiled by the JIT before they are measured
+        long deadline = System.nanoTime() + MIN_PHASE_NANOS;
+        for (int i = 0; i < WARMUP_ROUNDS || System.nanoTime() < deadline; i++) {
+            blackhole += task.getAsLong();
+        }
+        int rounds = 0;
+        long start = System.nanoTime();
+        deadline = start + MIN_PHASE_NANOS;
+        while (rounds < MEASURED_ROUNDS || System.nanoTime() < deadline) {
+            blackhole += task.getAsLong();
+            rounds++;
+        }
+        double nanos = (System.nanoTime() - start) / (double) rounds / opsPerRound;
+        record(name, params, nanos);
+        return nanos;
+    }
+
+    private static final void record(String name, String params, double nanosPerOp) {
+        results.add(new Result(name, params, nanosPerOp));
+        System.out.printf("%-28s %-24s %12.1f ns/op%n", name, params, nanosPerOp);
+    }
+
+    /**
+     * Writes all recorded results as a JSON object. Its "java" field holds
+     * the Java version the run used, and its "results" field an array with
+     * one object per result, holding its "name", "params" and "nanosPerOp".
+     *
+     * @param file The file to write.
+     */
+
+    private static final void writeJson(String file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+            out.write("{\n  \"java\": \"" + System.getProperty("java.version") + "\",\n  \"results\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                out.write(String.format(Locale.ROOT,
+                        "    {\"name\": \"%s\", \"params\": \"%s\", \"nanosPerOp\": %.3f}%s%n",
+                        result.name, result.params, result.nanosPerOp, i + 1 < results.size() ? "," : ""));
+            }
+            out.write("  ]\n}\n");
+        }
+    }
+}
@@ -29,6 +29,21 @@ public final class Bullet {
         this.direction = direction;
     }
 
+    /**
+     * Repoints this bullet at new values. BulletStore uses this to show its
+     * slots through a single reusable Bullet.
+     *
+     * @param x         The x-coordinate of the bullet.
+     * @param y         The y-coordinate of the bullet.
+     * @param direction The direction of the bullet's movement.
+     */
+
+    final void set(int x, int y, int direction) {
+        this.x = x;
+        this.y = y;
+        this.direction = direction;
+    }
+
     /**
      * Updates the bullet's position based on its direction and speed.
      */
@@ -66,4 +81,13 @@ public final class Bullet {
     public final int getX() {
         return x;
     }
+
+    /**
+     * 
+     * @return direction 1 for a bullet moving down, -1 for one moving up.
+     */
+
+    public final int getDirection() {
+        return direction;
+    }
 }
@@ -0,0 +1,264 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-capacity pool of bullets stored as parallel primitive arrays.
+ * The store is a view of one Archetype of an EntityStore, whose columns hold
+ * the position, direction and owner of every bullet. Live bullets are packed
+ * densely at the front of the columns, so spawning takes the first free slot
+ * and removing swaps the last live bullet into the hole. Neither allocates,
+ * and updating every bullet is a single linear pass over int arrays.
+ * Each store holds one lane of bullets, for example the player's or all of
+ * the aliens', so lanes never have to be filtered. Within a lane every bullet
+ * records the id of the entity that fired it as metadata only; bullets do
+ * not depend on their owner still being alive.
+ * Slots are renumbered as bullets are removed; {@link #getHandle(int)} gives
+ * a bullet's handle in the EntityStore, which keeps finding it, and tells
+ * when it is gone.
+ * {@link #get(int)} exposes a slot through a reusable {@link Bullet} view for
+ * code such as rendering and the intersects methods.
+ */
+
+public final class BulletStore {
+    // Components every bullet has
+    public static final long COMPONENTS = Component.bit(Component.X) | Component.bit(Component.Y)
+            | Component.bit(Component.DIRECTION) | Component.bit(Component.OWNER);
+
+    private final EntityStore entities;
+    private final Archetype archetype;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] directions;
+    private final int[] owners;
+
+    // Flyweight handed out by get(), repointed on every call
+    private final Bullet view = new Bullet(0, 0, 0);
+
+    /**
+     * Constructs an empty store with an EntityStore of its own.
+     *
+     * @param capacity The maximum number of bullets alive at once.
+     */
+
+    public BulletStore(int capacity) {
+        this(new EntityStore(), capacity);
+    }
+
+    /**
+     * Constructs an empty store as a new archetype of an EntityStore.
+     *
+     * @param entities The store holding the bullets.
+     * @param capacity The maximum number of bullets alive at once.
+     */
+
+    public BulletStore(EntityStore entities, int capacity) {
+        this.entities = entities;
+        this.archetype = entities.createArchetype(COMPONENTS, capacity);
+        this.xs = archetype.column(Component.X);
+        this.ys = archetype.column(Component.Y);
+        this.directions = archetype.column(Component.DIRECTION);
+        this.owners = archetype.column(Component.OWNER);
+    }
+
+    /**
+     * Adds a bullet in the first free slot.
+     *
+     * @param x         The x-coordinate of the bullet.
+     * @param y         The y-coordinate of the bullet.
+     * @param direction The direction of the bullet's movement.
+     * @return The slot of the new bullet, or -1 if the store is full and the
+     *         shot is dropped.
+     */
+
+    public final int spawn(int x, int y, int direction) {
+        return spawn(x, y, direction, -1);
+    }
+
+    /**
+     * Adds a bullet fired by a known entity in the first free slot.
+     *
+     * @param x         The x-coordinate of the bullet.
+     * @param y         The y-coordinate of the bullet.
+     * @param direction The direction of the bullet's movement.
+     * @param owner     The id of the entity that fired the bullet.
+     * @return The slot of the new bullet, or -1 if the store is full and the
+     *         shot is dropped.
+     */
+
+    public final int spawn(int x, int y, int direction, int owner) {
+        if (entities.spawn(archetype) == EntityStore.NONE) {
+            return -1;
+        }
+        int slot = archetype.size() - 1;
+        xs[slot] = x;
+        ys[slot] = y;
+        directions[slot] = direction;
+        owners[slot] = owner;
+        return slot;
+    }
+
+    /**
+     * Removes the bullet in a slot by moving the last live bullet into it.
+     * Slots above the removed one are therefore not disturbed, so a loop can
+     * remove while walking the slots from the top down.
+     *
+     * @param index The slot to free.
+     */
+
+    public final void remove(int index) {
+        archetype.remove(index);
+    }
+
+    /**
+     * Removes every bullet.
+     */
+
+    public final void clear() {
+        archetype.clear();
+    }
+
+    /**
+     * Moves every bullet a given distance along its direction and removes the
+     * ones that have left the vertical range.
+     *
+     * @param minY  Bullets above this y-coordinate are removed.
+     * @param maxY  Bullets below this y-coordinate are removed.
+     * @param speed The distance moved.
+     */
+
+    public final void update(int minY, int maxY, int speed) {
+        int size = archetype.size();
+        for (int i = 0; i < size; i++) {
+            ys[i] += directions[i] * speed;
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            if (ys[i] < minY || ys[i] > maxY) {
+                remove(i);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return The number of bytes writeState writes for the live bullets.
+     */
+
+    public final int getStateSize() {
+        return 4 + archetype.size() * 16;
+    }
+
+    /**
+     *
+     * @return The number of bytes writeState writes with every slot live.
+     */
+
+    public final int getMaxStateSize() {
+        return 4 + archetype.capacity() * 16;
+    }
+
+    /**
+     * Writes every live bullet, in slot order.
+     *
+     * @param buffer The buffer to write to.
+     */
+
+    public final void writeState(ByteBuffer buffer) {
+        int size = archetype.size();
+        buffer.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(xs[i]);
+            buffer.putInt(ys[i]);
+            buffer.putInt(directions[i]);
+            buffer.putInt(owners[i]);
+        }
+    }
+
+    /**
+     * Replaces the bullets with ones written by writeState. The bullets get
+     * new handles.
+     *
+     * @param buffer The buffer to read from.
+     */
+
+    public final void readState(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > xs.length) {
+            throw new IllegalArgumentException("Bullet count out of range: " + count);
+        }
+        clear();
+        for (int i = 0; i < count; i++) {
+            spawn(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+        }
+    }
+
+    /**
+     * Returns a view of the bullet in a slot. The same view object is reused
+     * for every call, so it is only valid until the next one.
+     *
+     * @param index The slot to view.
+     * @return A Bullet reflecting the slot.
+     */
+
+    public final Bullet get(int index) {
+        view.set(xs[index], ys[index], directions[index]);
+        return view;
+    }
+
+    public final int getX(int index) {
+        return xs[index];
+    }
+
+    public final int getY(int index) {
+        return ys[index];
+    }
+
+    public final int getDirection(int index) {
+        return directions[index];
+    }
+
+    /**
+     *
+     * @param index The slot to read.
+     * @return The id of the entity that fired the bullet, or -1 if unknown.
+     */
+
+    public final int getOwner(int index) {
+        return owners[index];
+    }
+
+    /**
+     *
+     * @param index The slot to read.
+     * @return The handle of the bullet in the EntityStore.
+     */
+
+    public final long getHandle(int index) {
+        return archetype.getHandle(index);
+    }
+
+    /**
+     *
+     * @return The archetype holding the bullets.
+     */
+
+    public final Archetype getArchetype() {
+        return archetype;
+    }
+
+    /**
+     *
+     * @return The number of live bullets.
+     */
+
+    public final int size() {
+        return archetype.size();
+    }
+
+    /**
+     *
+     * @return The maximum number of live bullets.
+     */
+
+    public final int capacity() {
+        return archetype.capacity();
+    }
+}
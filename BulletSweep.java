@@ -0,0 +1,202 @@
+import java.util.List;
+
+/**
+ * Finds the first thing a bullet runs into while it moves one tick.
+ * Instead of testing only where the bullet ends up, the box the bullet sweeps
+ * along its path is tested, and every target it touches gets a time of
+ * impact: the fraction of the move after which the two boxes first overlap.
+ * The target with the earliest time wins, so a bullet cannot pass through a
+ * thin target between two ticks, and it hits only the first target on its
+ * path however far it moves per tick. What a bullet hits therefore does not
+ * depend on the tick rate or the bullet speed.
+ * Ties are broken by the order the targets are tested in, shields before
+ * aliens, and by index within them, so outcomes are reproducible.
+ * One sweep is reused for every bullet; testing never allocates.
+ */
+
+public final class BulletSweep {
+    public static final int NOTHING = 0;
+    public static final int OBSTACLE = 1;
+    public static final int ALIEN = 2;
+    public static final int PLAYER = 3;
+
+    private int kind;
+    private int target;
+    private int row;
+    private double time;
+
+    // The bullet being swept
+    private int x;
+    private int y;
+    private int dy;
+
+    /**
+     * Starts a sweep for a bullet, forgetting the previous one.
+     *
+     * @param x  The x-coordinate of the bullet.
+     * @param y  The y-coordinate of the bullet before it moves.
+     * @param dy The distance the bullet moves this tick, negative for up.
+     */
+
+    public final void begin(int x, int y, int dy) {
+        this.x = x;
+        this.y = y;
+        this.dy = dy;
+        kind = NOTHING;
+        target = -1;
+        row = -1;
+        time = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Tests the shields that share a cell of a grid with the path of the
+     * bullet; only live cells count.
+     *
+     * @param obstacles The shields.
+     * @param grid      A grid holding the shields by index.
+     */
+
+    public final void testObstacles(List<Obstacle> obstacles, SpatialGrid grid) {
+        int candidates = grid.query(x, Math.min(y, y + dy), Bullet.BULLET_SIZE, Bullet.BULLET_SIZE + Math.abs(dy));
+        for (int c = 0; c < candidates; c++) {
+            int index = grid.candidate(c);
+            Obstacle obstacle = obstacles.get(index);
+            int hitRow = obstacle.firstRowAlong(x, y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE, dy);
+            if (hitRow < 0) {
+                continue;
+            }
+            double t = timeOfImpact(x, y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE, 0, dy, obstacle.getX(),
+                    obstacle.getRowY(hitRow), Obstacle.WIDTH, Obstacle.CELL_SIZE);
+            if (t < time || t == time && kind == OBSTACLE && index < target) {
+                record(OBSTACLE, index, hitRow, t);
+            }
+        }
+    }
+
+    /**
+     * Tests the live aliens of a formation near the path of the bullet.
+     *
+     * @param formation The formation.
+     * @param slots     Scratch space holding at least every slot.
+     */
+
+    public final void testFormation(Formation formation, int[] slots) {
+        int candidates = formation.collectOverlapping(x, Math.min(y, y + dy), Bullet.BULLET_SIZE,
+                Bullet.BULLET_SIZE + Math.abs(dy), slots);
+        for (int c = 0; c < candidates; c++) {
+            int slot = slots[c];
+            double t = timeOfImpact(x, y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE, 0, dy, formation.getSlotX(slot),
+                    formation.getSlotY(slot), Alien.ALIEN_SIZE, Alien.ALIEN_SIZE);
+            if (t < time) {
+                record(ALIEN, slot, -1, t);
+            }
+        }
+    }
+
+    /**
+     * Tests the player.
+     *
+     * @param player The player.
+     */
+
+    public final void testPlayer(Player player) {
+        double t = timeOfImpact(x, y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE, 0, dy, player.getX(), player.getY(),
+                Player.PLAYER_SIZE, Player.PLAYER_SIZE);
+        if (t < time) {
+            record(PLAYER, 0, -1, t);
+        }
+    }
+
+    private final void record(int kind, int target, int row, double time) {
+        this.kind = kind;
+        this.target = target;
+        this.row = row;
+        this.time = time;
+    }
+
+    /**
+     * Computes when a moving box first overlaps a still one, by intersecting
+     * the intervals of the move during which they overlap on each axis.
+     * Boxes that only touch along an edge do not overlap, as in the
+     * intersects methods.
+     *
+     * @param x           The x-coordinate of the moving box before it moves.
+     * @param y           The y-coordinate of the moving box before it moves.
+     * @param width       The width of the moving box.
+     * @param height      The height of the moving box.
+     * @param dx          The horizontal distance the box moves.
+     * @param dy          The vertical distance the box moves.
+     * @param otherX      The x-coordinate of the still box.
+     * @param otherY      The y-coordinate of the still box.
+     * @param otherWidth  The width of the still box.
+     * @param otherHeight The height of the still box.
+     * @return The fraction of the move, from 0 to 1, at which the boxes start
+     *         to overlap; 0 if they already do; or infinity if they do not
+     *         overlap during the move.
+     */
+
+    public static final double timeOfImpact(int x, int y, int width, int height, int dx, int dy, int otherX,
+            int otherY, int otherWidth, int otherHeight) {
+        double entry = 0;
+        double exit = 1;
+        if (dx == 0) {
+            if (x >= otherX + otherWidth || x + width <= otherX) {
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            double near = dx > 0 ? otherX - (x + width) : x - (otherX + otherWidth);
+            double far = dx > 0 ? otherX + otherWidth - x : x + width - otherX;
+            entry = Math.max(entry, near / Math.abs(dx));
+            exit = Math.min(exit, far / Math.abs(dx));
+        }
+        if (dy == 0) {
+            if (y >= otherY + otherHeight || y + height <= otherY) {
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            double near = dy > 0 ? otherY - (y + height) : y - (otherY + otherHeight);
+            double far = dy > 0 ? otherY + otherHeight - y : y + height - otherY;
+            entry = Math.max(entry, near / Math.abs(dy));
+            exit = Math.min(exit, far / Math.abs(dy));
+        }
+        // Overlap starts just after entry and ends at exit, both exclusive
+        return entry < exit && entry < 1 ? entry : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     *
+     * @return What the bullet hit first: NOTHING, OBSTACLE, ALIEN or PLAYER.
+     */
+
+    public final int getKind() {
+        return kind;
+    }
+
+    /**
+     *
+     * @return The index of the shield or the slot of the alien hit.
+     */
+
+    public final int getTarget() {
+        return target;
+    }
+
+    /**
+     *
+     * @return The row of shield cells hit, or -1 if no shield was hit.
+     */
+
+    public final int getRow() {
+        return row;
+    }
+
+    /**
+     *
+     * @return The time of impact as a fraction of the move, or infinity if
+     *         nothing was hit.
+     */
+
+    public final double getTime() {
+        return time;
+    }
+}
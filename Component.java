@@ -0,0 +1,26 @@
+/**
+ * The kinds of component an entity can have. Every component is one int per
+ * entity, held in a column of each Archetype that has it, and one bit in the
+ * masks that describe archetypes and queries.
+ */
+
+public final class Component {
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int DIRECTION = 2;
+    public static final int OWNER = 3;
+    public static final int COUNT = 4;
+
+    private Component() {
+    }
+
+    /**
+     *
+     * @param component One of the component constants.
+     * @return The bit of the component in a mask.
+     */
+
+    public static final long bit(int component) {
+        return 1L << component;
+    }
+}
@@ -0,0 +1,130 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes a world state as its difference from an earlier state, the base.
+ * Runs of bytes equal to the base are skipped, and runs of differing bytes
+ * are stored XORed with the base. Each pair of runs is written as two varint
+ * lengths followed by the differing bytes; bytes after the last pair equal
+ * the base, and bytes past the end of the base count as zero. For a world
+ * that changed little the encoding is a small fraction of the state.
+ * RewindBuffer encodes its deltas against keyframes, and GameServer encodes
+ * the states it sends against the last one a client acknowledged.
+ */
+
+public final class DeltaCodec {
+    // Compares states eight bytes at a time while they are equal
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private DeltaCodec() {
+    }
+
+    /**
+     * Encodes a state against a base.
+     *
+     * @param state      The state to encode.
+     * @param size       The length of the state.
+     * @param base       The state to encode against.
+     * @param baseLength The length of the base.
+     * @param out        Receives the encoding, with room for limit bytes
+     *                   from offset on.
+     * @param offset     Where the encoding starts in out.
+     * @param limit      The length the encoding must stay below.
+     * @return The length of the encoding, or -1 if it would not be shorter
+     *         than limit.
+     */
+
+    public static final int encode(byte[] state, int size, byte[] base, int baseLength, byte[] out, int offset,
+            int limit) {
+        int length = 0;
+        int i = 0;
+        int common = Math.min(size, baseLength);
+        while (i < size) {
+            int start = i;
+            while (i + Long.BYTES <= common && (long) LONGS.get(state, i) == (long) LONGS.get(base, i)) {
+                i += Long.BYTES;
+            }
+            while (i < size && state[i] == baseByte(base, baseLength, i)) {
+                i++;
+            }
+            if (i == size) {
+                break;
+            }
+            int skipped = i - start;
+
+            // A single equal byte costs less to store than to skip
+            int literalStart = i;
+            while (i < size && (state[i] != baseByte(base, baseLength, i)
+                    || (i + 1 < size && state[i + 1] != baseByte(base, baseLength, i + 1)))) {
+                i++;
+            }
+            int literals = i - literalStart;
+
+            if (length + 10 + literals >= limit) {
+                return -1;
+            }
+            length = putVarint(out, offset + length, skipped) - offset;
+            length = putVarint(out, offset + length, literals) - offset;
+            for (int j = literalStart; j < i; j++) {
+                out[offset + length++] = (byte) (state[j] ^ baseByte(base, baseLength, j));
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Applies an encoding to a copy of its base, turning it into the encoded
+     * state.
+     *
+     * @param encoded The encoding.
+     * @param offset  Where the encoding starts.
+     * @param length  The length of the encoding.
+     * @param target  Holds the base, followed by zeros up to the length of
+     *                the encoded state.
+     * @throws IndexOutOfBoundsException if the encoding does not fit the
+     *                                   target, as when it is corrupt.
+     */
+
+    public static final void decode(byte[] encoded, int offset, int length, byte[] target) {
+        int in = offset;
+        int end = offset + length;
+        int i = 0;
+        while (in < end) {
+            int skipped = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = encoded[in++];
+                skipped |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            int literals = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = encoded[in++];
+                literals |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            i += skipped;
+            for (int j = 0; j < literals; j++) {
+                target[i++] ^= encoded[in++];
+            }
+        }
+    }
+
+    private static final byte baseByte(byte[] base, int baseLength, int index) {
+        return index < baseLength ? base[index] : 0;
+    }
+
+    private static final int putVarint(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+}
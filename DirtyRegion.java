@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+/**
+ * A list of rectangles on the drawing surface that changed in one frame.
+ * Rectangles are clipped to the surface as they are added and kept in
+ * parallel int arrays that grow as needed and are reused from frame to frame,
+ * so collecting the dirty region does not allocate once it has warmed up.
+ * The bounding box and total area of the rectangles are maintained as they
+ * are added.
+ */
+
+public final class DirtyRegion {
+    private final int surfaceWidth;
+    private final int surfaceHeight;
+
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private int[] widths = new int[64];
+    private int[] heights = new int[64];
+    private int size;
+    private long area;
+
+    // Bounding box of every rectangle added since the last clear
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+
+    /**
+     * Constructs an empty region.
+     *
+     * @param surfaceWidth  The width of the drawing surface.
+     * @param surfaceHeight The height of the drawing surface.
+     */
+
+    public DirtyRegion(int surfaceWidth, int surfaceHeight) {
+        this.surfaceWidth = surfaceWidth;
+        this.surfaceHeight = surfaceHeight;
+        clear();
+    }
+
+    /**
+     * Adds a rectangle, clipped to the surface. Rectangles entirely off the
+     * surface are ignored.
+     *
+     * @param x      The x-coordinate of the rectangle.
+     * @param y      The y-coordinate of the rectangle.
+     * @param width  The width of the rectangle.
+     * @param height The height of the rectangle.
+     */
+
+    public final void add(int x, int y, int width, int height) {
+        int left = Math.max(0, x);
+        int top = Math.max(0, y);
+        int right = Math.min(surfaceWidth, x + width);
+        int bottom = Math.min(surfaceHeight, y + height);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+        }
+        xs[size] = left;
+        ys[size] = top;
+        widths[size] = right - left;
+        heights[size] = bottom - top;
+        size++;
+        area += (long) (right - left) * (bottom - top);
+        minX = Math.min(minX, left);
+        minY = Math.min(minY, top);
+        maxX = Math.max(maxX, right);
+        maxY = Math.max(maxY, bottom);
+    }
+
+    /**
+     * Adds the whole surface.
+     */
+
+    public final void addAll() {
+        add(0, 0, surfaceWidth, surfaceHeight);
+    }
+
+    /**
+     * Removes every rectangle.
+     */
+
+    public final void clear() {
+        size = 0;
+        area = 0;
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxY = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Checks whether any rectangle of the region overlaps a box.
+     *
+     * @param x      The x-coordinate of the box.
+     * @param y      The y-coordinate of the box.
+     * @param width  The width of the box.
+     * @param height The height of the box.
+     * @return true if at least one rectangle overlaps the box.
+     */
+
+    public final boolean intersects(int x, int y, int width, int height) {
+        if (size == 0 || x >= maxX || x + width <= minX || y >= maxY || y + height <= minY) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (x < xs[i] + widths[i] && x + width > xs[i] && y < ys[i] + heights[i] && y + height > ys[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public final int getX(int index) {
+        return xs[index];
+    }
+
+    public final int getY(int index) {
+        return ys[index];
+    }
+
+    public final int getWidth(int index) {
+        return widths[index];
+    }
+
+    public final int getHeight(int index) {
+        return heights[index];
+    }
+
+    /**
+     *
+     * @return The number of rectangles in the region.
+     */
+
+    public final int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return The summed area of the rectangles in pixels; overlapping
+     *         rectangles are counted once each.
+     */
+
+    public final long getArea() {
+        return area;
+    }
+
+    public final boolean isEmpty() {
+        return size == 0;
+    }
+
+    public final int getMinX() {
+        return minX;
+    }
+
+    public final int getMinY() {
+        return minY;
+    }
+
+    public final int getMaxX() {
+        return maxX;
+    }
+
+    public final int getMaxY() {
+        return maxY;
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.Arrays;
+
+/**
+ * Holds entities as rows of archetypes, each archetype keeping one dense int
+ * column per component, and hands out generational handles to them.
+ * A handle packs the entity's index in the store's directory with the
+ * generation of that index. Despawning bumps the generation and pushes the
+ * index on a free list for reuse, so a handle kept past its entity's death
+ * no longer matches and is reported as stale instead of finding whichever
+ * entity took the index over. The directory maps each index to its
+ * archetype and row, which despawning keeps current as rows are swapped.
+ * The directory is sized when archetypes are created, so spawning and
+ * despawning take constant time and never allocate.
+ * Queries collect the archetypes that have a set of components; the caller
+ * then walks their columns linearly.
+ */
+
+public final class EntityStore {
+    public static final long NONE = -1;
+
+    private Archetype[] archetypes = new Archetype[0];
+
+    // Directory, indexed by the low half of a handle
+    private int[] generations = new int[0];
+    private Archetype[] owners = new Archetype[0];
+    private int[] rows = new int[0];
+
+    // Indices never used yet start at used; freed ones are stacked
+    private int used;
+    private int[] free = new int[0];
+    private int freeCount;
+
+    /**
+     * Adds an archetype and grows the directory by its capacity.
+     *
+     * @param mask     The component bits every entity of the archetype has.
+     * @param capacity The maximum number of live entities in the archetype.
+     * @return The new archetype.
+     */
+
+    public final Archetype createArchetype(long mask, int capacity) {
+        if (capacity < 0 || mask == 0 || (mask & -Component.bit(Component.COUNT)) != 0) {
+            throw new IllegalArgumentException("Archetype needs known components and a capacity");
+        }
+        Archetype archetype = new Archetype(this, mask, capacity);
+        archetypes = Arrays.copyOf(archetypes, archetypes.length + 1);
+        archetypes[archetypes.length - 1] = archetype;
+        int size = generations.length + capacity;
+        generations = Arrays.copyOf(generations, size);
+        owners = Arrays.copyOf(owners, size);
+        rows = Arrays.copyOf(rows, size);
+        free = Arrays.copyOf(free, size);
+        return archetype;
+    }
+
+    /**
+     * Spawns an entity in an archetype. Its components are left as the last
+     * entity in its row had them; the caller writes them through the row.
+     *
+     * @param archetype An archetype of this store.
+     * @return The handle of the entity, or NONE if the archetype is full.
+     */
+
+    public final long spawn(Archetype archetype) {
+        int index = freeCount > 0 ? free[--freeCount] : used;
+        int row = archetype.add(index);
+        if (row < 0) {
+            if (index != used) {
+                freeCount++;
+            }
+            return NONE;
+        }
+        if (index == used) {
+            used++;
+        }
+        owners[index] = archetype;
+        rows[index] = row;
+        return getHandle(index);
+    }
+
+    /**
+     * Despawns the entity a handle refers to.
+     *
+     * @param handle A live handle.
+     */
+
+    public final void despawn(long handle) {
+        getArchetype(handle).remove(getRow(handle));
+    }
+
+    /**
+     *
+     * @param handle A handle, possibly stale.
+     * @return true if the entity the handle refers to is still alive.
+     */
+
+    public final boolean isAlive(long handle) {
+        int index = (int) handle;
+        return handle >= 0 && index >= 0 && index < used && owners[index] != null && generations[index] == (int) (handle >>> 32);
+    }
+
+    /**
+     *
+     * @param handle A live handle.
+     * @return The archetype holding the entity.
+     */
+
+    public final Archetype getArchetype(long handle) {
+        check(handle);
+        return owners[(int) handle];
+    }
+
+    /**
+     *
+     * @param handle A live handle.
+     * @return The row of the entity in its archetype.
+     */
+
+    public final int getRow(long handle) {
+        check(handle);
+        return rows[(int) handle];
+    }
+
+    /**
+     * Collects the archetypes that have every component of a mask.
+     *
+     * @param required The component bits to match.
+     * @param matches  Receives the archetypes; must hold every archetype.
+     * @return The number of archetypes collected.
+     */
+
+    public final int query(long required, Archetype[] matches) {
+        int count = 0;
+        for (int i = 0; i < archetypes.length; i++) {
+            if (archetypes[i].has(required)) {
+                matches[count++] = archetypes[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @return The number of archetypes, which a query result must hold.
+     */
+
+    public final int getArchetypeCount() {
+        return archetypes.length;
+    }
+
+    private final void check(long handle) {
+        if (!isAlive(handle)) {
+            throw new IllegalArgumentException("Stale entity handle: " + Long.toHexString(handle));
+        }
+    }
+
+    final long getHandle(int index) {
+        return (long) generations[index] << 32 | index;
+    }
+
+    // Called by an archetype that moved an entity to another row
+    final void relocate(int index, int row) {
+        rows[index] = row;
+    }
+
+    // Called by an archetype that despawned an entity
+    final void release(int index) {
+        // Generations stay positive so handles never collide with NONE
+        generations[index] = generations[index] + 1 & Integer.MAX_VALUE;
+        owners[index] = null;
+        free[freeCount++] = index;
+    }
+}
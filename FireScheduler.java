@@ -0,0 +1,171 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Schedules the shots of the aliens of a formation on a hashed timing wheel.
+ * Each alien is entered once with the tick of its next shot, in the bucket
+ * that tick hashes to. Every tick the World drains the one bucket of the
+ * current tick, so the cost of firing grows with the shots fired instead of
+ * being a random draw per alien per tick.
+ * The wheel has at least as many buckets as the longest wait, so every entry
+ * in a bucket is due when the bucket comes round. Entries also record their
+ * tick, which keeps a shorter wheel correct, only slower.
+ * Buckets are linked lists threaded through arrays indexed by slot, so
+ * scheduling and draining never allocate. Killed aliens are not removed; the
+ * World drops their entries when they come due.
+ * The order of the due slots decides which random delay each alien draws,
+ * so a rewound world must drain them in the same order as the original. The
+ * state therefore records the links of the lists as well as the ticks, and a
+ * restored scheduler rebuilds the very same lists; draining never sorts.
+ */
+
+public final class FireScheduler {
+    private static final int NONE = -1;
+
+    private final int[] heads;
+    private final int mask;
+    private final int[] next;
+    private final long[] dueTicks;
+
+    // Slots another slot links to, used while restoring the lists
+    private final boolean[] linked;
+
+    /**
+     * Constructs an empty scheduler.
+     *
+     * @param slots   The number of slots in the formation.
+     * @param horizon The longest wait between scheduling a shot and firing
+     *                it, in ticks.
+     */
+
+    public FireScheduler(int slots, int horizon) {
+        if (slots <= 0 || horizon <= 0) {
+            throw new IllegalArgumentException("Scheduler sizes must be positive");
+        }
+        int size = Integer.highestOneBit(horizon);
+        if (size < horizon) {
+            size <<= 1;
+        }
+        this.heads = new int[size];
+        this.mask = size - 1;
+        this.next = new int[slots];
+        this.dueTicks = new long[slots];
+        this.linked = new boolean[slots];
+        clear();
+    }
+
+    /**
+     * Schedules the next shot of a slot. The slot must not be scheduled.
+     *
+     * @param slot The slot of the alien.
+     * @param tick The tick the alien fires on.
+     */
+
+    public final void schedule(int slot, long tick) {
+        int bucket = (int) tick & mask;
+        dueTicks[slot] = tick;
+        next[slot] = heads[bucket];
+        heads[bucket] = slot;
+    }
+
+    /**
+     * Removes every slot whose shot is due on a tick. The slots are returned
+     * in the order they stand in their bucket, which a restored scheduler
+     * keeps, so a rewound world fires in the same order as the original.
+     *
+     * @param tick  The current tick.
+     * @param slots Receives the due slots; must hold every slot.
+     * @return The number of slots due.
+     */
+
+    public final int drain(long tick, int[] slots) {
+        int bucket = (int) tick & mask;
+        int count = 0;
+        int previous = NONE;
+        int slot = heads[bucket];
+        while (slot != NONE) {
+            int following = next[slot];
+            if (dueTicks[slot] == tick) {
+                if (previous == NONE) {
+                    heads[bucket] = following;
+                } else {
+                    next[previous] = following;
+                }
+                dueTicks[slot] = NONE;
+                slots[count++] = slot;
+            } else {
+                previous = slot;
+            }
+            slot = following;
+        }
+        return count;
+    }
+
+    /**
+     * Unschedules every slot.
+     */
+
+    public final void clear() {
+        Arrays.fill(heads, NONE);
+        Arrays.fill(dueTicks, NONE);
+    }
+
+    /**
+     *
+     * @param slot The slot of the alien.
+     * @return The tick of the next shot of the slot, or -1 if none is
+     *         scheduled.
+     */
+
+    public final long getDueTick(int slot) {
+        return dueTicks[slot];
+    }
+
+    /**
+     *
+     * @return The number of bytes writeState writes.
+     */
+
+    public final int getStateSize() {
+        return dueTicks.length * 12;
+    }
+
+    /**
+     * Writes the tick of the next shot of every slot, and the slot that
+     * follows it in its bucket.
+     *
+     * @param buffer The buffer to write to.
+     */
+
+    public final void writeState(ByteBuffer buffer) {
+        for (int slot = 0; slot < dueTicks.length; slot++) {
+            buffer.putLong(dueTicks[slot]);
+            buffer.putInt(dueTicks[slot] != NONE ? next[slot] : NONE);
+        }
+    }
+
+    /**
+     * Replaces every scheduled shot with those written by writeState of a
+     * scheduler with as many slots, in the same order in their buckets.
+     *
+     * @param buffer The buffer to read from.
+     */
+
+    public final void readState(ByteBuffer buffer) {
+        clear();
+        Arrays.fill(linked, false);
+        for (int slot = 0; slot < dueTicks.length; slot++) {
+            dueTicks[slot] = buffer.getLong();
+            next[slot] = buffer.getInt();
+            if (next[slot] != NONE) {
+                linked[next[slot]] = true;
+            }
+        }
+        // The head of a bucket is the one scheduled slot nothing links to
+        for (int slot = 0; slot < dueTicks.length; slot++) {
+            if (dueTicks[slot] != NONE && !linked[slot]) {
+                heads[(int) dueTicks[slot] & mask] = slot;
+            }
+        }
+    }
+}
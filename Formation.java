@@ -0,0 +1,410 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Represents a block of aliens that moves as one.
+ * Every alien occupies a slot on a rows x columns grid whose position is
+ * derived from a single shared origin, so moving the whole formation is one
+ * addition. Which slots are still alive is kept in a bitset, together with a
+ * bounding box over the live slots that is maintained as aliens are killed.
+ * This makes the edge check a single comparison per side, and lets a box such
+ * as a bullet be mapped straight to the few slots it can overlap by arithmetic
+ * instead of being tested against every alien.
+ */
+
+public final class Formation {
+    // Distance the formation moves down at an edge by default
+    private static final int LAYER_HEIGHT = 10;
+
+    private final int rows;
+    private final int columns;
+    private final int spacingX;
+    private final int spacingY;
+    private final Alien[] aliens;
+
+    // Position of slot (0, 0) and horizontal direction of travel
+    private int originX;
+    private int originY;
+    private int direction = 1; // 1 for right, -1 for left
+
+    private final long[] alive;
+    private int aliveCount;
+    private final int[] aliveInRow;
+    private final int[] aliveInColumn;
+
+    // Bounding box of the live slots, in slot coordinates
+    private int minRow;
+    private int maxRow;
+    private int minColumn;
+    private int maxColumn;
+
+    /**
+     * Constructs a formation with every slot alive.
+     *
+     * @param rows     The number of rows of aliens.
+     * @param columns  The number of aliens in each row.
+     * @param originX  The x-coordinate of the top left alien.
+     * @param originY  The y-coordinate of the top left alien.
+     * @param spacingX The horizontal distance between neighbouring aliens.
+     * @param spacingY The vertical distance between neighbouring aliens.
+     * @param firstId  The id of the top left alien; ids increase row by row.
+     */
+
+    public Formation(int rows, int columns, int originX, int originY, int spacingX, int spacingY, int firstId) {
+        this(rows, columns, originX, originY, spacingX, spacingY);
+        for (int slot = 0; slot < aliens.length; slot++) {
+            aliens[slot] = new Alien(this, slot, firstId + slot);
+        }
+    }
+
+    /**
+     * Constructs a single slot formation around an existing alien. This is how
+     * an alien created on its own gets a position.
+     */
+
+    Formation(int x, int y, Alien alien) {
+        this(1, 1, x, y, Alien.ALIEN_SIZE, Alien.ALIEN_SIZE);
+        aliens[0] = alien;
+    }
+
+    private Formation(int rows, int columns, int originX, int originY, int spacingX, int spacingY) {
+        if (rows <= 0 || columns <= 0 || spacingX <= 0 || spacingY <= 0) {
+            throw new IllegalArgumentException("Formation dimensions must be positive");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.spacingX = spacingX;
+        this.spacingY = spacingY;
+        this.originX = originX;
+        this.originY = originY;
+        this.aliens = new Alien[rows * columns];
+
+        int slots = rows * columns;
+        this.alive = new long[(slots + 63) >>> 6];
+        for (int slot = 0; slot < slots; slot++) {
+            alive[slot >>> 6] |= 1L << slot;
+        }
+        this.aliveCount = slots;
+        this.aliveInRow = new int[rows];
+        this.aliveInColumn = new int[columns];
+        Arrays.fill(aliveInRow, columns);
+        Arrays.fill(aliveInColumn, rows);
+        this.minRow = 0;
+        this.maxRow = rows - 1;
+        this.minColumn = 0;
+        this.maxColumn = columns - 1;
+    }
+
+    /**
+     * Moves the formation one step sideways, and one layer down with a change
+     * of direction when its live aliens reach either edge of the field.
+     *
+     * @param fieldWidth The width of the field.
+     */
+
+    public final void update(int fieldWidth) {
+        update(fieldWidth, LAYER_HEIGHT);
+    }
+
+    /**
+     * Moves the formation one step sideways, and a given distance down with
+     * a change of direction when its live aliens reach either edge.
+     *
+     * @param fieldWidth The width of the field.
+     * @param drop       How far the formation moves down at an edge.
+     */
+
+    public final void update(int fieldWidth, int drop) {
+        originX += direction;
+        if (aliveCount > 0 && (getLeft() <= 0 || getRight() >= fieldWidth)) {
+            moveDown(drop);
+        }
+    }
+
+    /**
+     * Moves the formation one layer down and reverses its horizontal direction.
+     */
+
+    public final void moveDown() {
+        moveDown(LAYER_HEIGHT);
+    }
+
+    private final void moveDown(int drop) {
+        originY += drop; // Move one layer down
+        direction *= -1; // Change direction to opposite horizontal direction
+    }
+
+    /**
+     * Marks a slot as destroyed and shrinks the bounding box if it was the
+     * last live alien in an outer row or column.
+     *
+     * @param slot The slot to kill.
+     */
+
+    public final void kill(int slot) {
+        if (!isAlive(slot)) {
+            return;
+        }
+        alive[slot >>> 6] &= ~(1L << slot);
+        aliveCount--;
+        aliveInRow[slot / columns]--;
+        aliveInColumn[slot % columns]--;
+        if (aliveCount == 0) {
+            return;
+        }
+        shrinkBounds();
+    }
+
+    /**
+     *
+     * @return The number of bytes writeState writes.
+     */
+
+    public final int getStateSize() {
+        return 12 + alive.length * 8;
+    }
+
+    /**
+     * Writes the position and direction of the formation and which slots are
+     * alive.
+     *
+     * @param buffer The buffer to write to.
+     */
+
+    public final void writeState(ByteBuffer buffer) {
+        buffer.putInt(originX);
+        buffer.putInt(originY);
+        buffer.putInt(direction);
+        for (int word = 0; word < alive.length; word++) {
+            buffer.putLong(alive[word]);
+        }
+    }
+
+    /**
+     * Restores a formation of the same size from the state written by
+     * writeState, recounting the live slots and their bounding box.
+     *
+     * @param buffer The buffer to read from.
+     */
+
+    public final void readState(ByteBuffer buffer) {
+        originX = buffer.getInt();
+        originY = buffer.getInt();
+        direction = buffer.getInt();
+        for (int word = 0; word < alive.length; word++) {
+            alive[word] = buffer.getLong();
+        }
+
+        int slots = aliens.length;
+        if ((slots & 63) != 0) {
+            alive[alive.length - 1] &= (1L << slots) - 1;
+        }
+        Arrays.fill(aliveInRow, 0);
+        Arrays.fill(aliveInColumn, 0);
+        aliveCount = 0;
+        for (int slot = nextAlive(0); slot != -1; slot = nextAlive(slot + 1)) {
+            aliveCount++;
+            aliveInRow[slot / columns]++;
+            aliveInColumn[slot % columns]++;
+        }
+        minRow = 0;
+        maxRow = rows - 1;
+        minColumn = 0;
+        maxColumn = columns - 1;
+        if (aliveCount > 0) {
+            shrinkBounds();
+        }
+    }
+
+    // Moves each side of the bounding box inwards past empty rows and columns
+    private final void shrinkBounds() {
+        while (aliveInRow[minRow] == 0) {
+            minRow++;
+        }
+        while (aliveInRow[maxRow] == 0) {
+            maxRow--;
+        }
+        while (aliveInColumn[minColumn] == 0) {
+            minColumn++;
+        }
+        while (aliveInColumn[maxColumn] == 0) {
+            maxColumn--;
+        }
+    }
+
+    /**
+     * Finds a live alien whose bounds overlap a box.
+     * Only the slots whose cells the box can reach are examined.
+     *
+     * @param x      The x-coordinate of the box.
+     * @param y      The y-coordinate of the box.
+     * @param width  The width of the box.
+     * @param height The height of the box.
+     * @return The slot of the first overlapping live alien, or -1 if none.
+     */
+
+    public final int findHit(int x, int y, int width, int height) {
+        if (aliveCount == 0) {
+            return -1;
+        }
+        int firstColumn = Math.max(minColumn, firstOverlapping(x - originX, Alien.ALIEN_SIZE, spacingX));
+        int lastColumn = Math.min(maxColumn, Math.floorDiv(x + width - 1 - originX, spacingX));
+        int firstRow = Math.max(minRow, firstOverlapping(y - originY, Alien.ALIEN_SIZE, spacingY));
+        int lastRow = Math.min(maxRow, Math.floorDiv(y + height - 1 - originY, spacingY));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int slot = row * columns + column;
+                if (isAlive(slot)) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Collects the live aliens whose bounds overlap a box.
+     *
+     * @param x      The x-coordinate of the box.
+     * @param y      The y-coordinate of the box.
+     * @param width  The width of the box.
+     * @param height The height of the box.
+     * @param slots  Receives the overlapping slots; at most its length are
+     *               collected.
+     * @return The number of slots collected.
+     */
+
+    public final int collectOverlapping(int x, int y, int width, int height, int[] slots) {
+        if (aliveCount == 0) {
+            return 0;
+        }
+        int count = 0;
+        int firstColumn = Math.max(minColumn, firstOverlapping(x - originX, Alien.ALIEN_SIZE, spacingX));
+        int lastColumn = Math.min(maxColumn, Math.floorDiv(x + width - 1 - originX, spacingX));
+        int firstRow = Math.max(minRow, firstOverlapping(y - originY, Alien.ALIEN_SIZE, spacingY));
+        int lastRow = Math.min(maxRow, Math.floorDiv(y + height - 1 - originY, spacingY));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn && count < slots.length; column++) {
+                int slot = row * columns + column;
+                if (isAlive(slot)) {
+                    slots[count++] = slot;
+                }
+            }
+        }
+        return count;
+    }
+
+    // First index whose cell [index * spacing, index * spacing + size) reaches
+    // past the given offset
+    private static final int firstOverlapping(int offset, int size, int spacing) {
+        return Math.floorDiv(offset - size, spacing) + 1;
+    }
+
+    /**
+     * Returns the next live slot at or after a given slot. Looping from
+     * {@code nextAlive(0)} visits every live alien in slot order.
+     *
+     * @param from The slot to start searching at.
+     * @return The next live slot, or -1 if there are none.
+     */
+
+    public final int nextAlive(int from) {
+        int word = from >>> 6;
+        if (word >= alive.length) {
+            return -1;
+        }
+        long bits = alive[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == alive.length) {
+                return -1;
+            }
+            bits = alive[word];
+        }
+    }
+
+    public final boolean isAlive(int slot) {
+        return (alive[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     *
+     * @param slot The slot of the alien.
+     * @return The alien occupying the slot, alive or not.
+     */
+
+    public final Alien getAlien(int slot) {
+        return aliens[slot];
+    }
+
+    public final int getSlotX(int slot) {
+        return originX + (slot % columns) * spacingX;
+    }
+
+    public final int getSlotY(int slot) {
+        return originY + (slot / columns) * spacingY;
+    }
+
+    /**
+     *
+     * @return The x-coordinate of the left edge of the live aliens.
+     */
+
+    public final int getLeft() {
+        return originX + minColumn * spacingX;
+    }
+
+    /**
+     *
+     * @return The x-coordinate just past the right edge of the live aliens.
+     */
+
+    public final int getRight() {
+        return originX + maxColumn * spacingX + Alien.ALIEN_SIZE;
+    }
+
+    /**
+     *
+     * @return The y-coordinate of the top edge of the live aliens.
+     */
+
+    public final int getTop() {
+        return originY + minRow * spacingY;
+    }
+
+    /**
+     *
+     * @return The y-coordinate just past the bottom edge of the live aliens.
+     */
+
+    public final int getBottom() {
+        return originY + maxRow * spacingY + Alien.ALIEN_SIZE;
+    }
+
+    public final int getAliveCount() {
+        return aliveCount;
+    }
+
+    /**
+     *
+     * @return The total number of slots, alive or not.
+     */
+
+    public final int getSlotCount() {
+        return aliens.length;
+    }
+
+    public final int getRows() {
+        return rows;
+    }
+
+    public final int getColumns() {
+        return columns;
+    }
+
+    public final int getDirection() {
+        return direction;
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * Collects frame times and reports the achieved frame rate together with
+ * frame time percentiles and the average number of pixels drawn per frame.
+ * The most recent frame times are kept in a fixed ring, so recording a frame
+ * is constant time and never allocates.
+ */
+
+public final class FrameStats {
+    private final long[] samples;
+    private final long[] scratch;
+    private int sampleCount;
+    private int nextSample;
+
+    // Frames counted since the last report
+    private int framesInWindow;
+    private long pixelsInWindow;
+    private long windowStart;
+
+    /**
+     * Constructs an empty collector.
+     *
+     * @param capacity The number of recent frame times kept for percentiles.
+     */
+
+    public FrameStats(int capacity) {
+        this.samples = new long[capacity];
+        this.scratch = new long[capacity];
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * Records the time taken to produce one frame.
+     *
+     * @param frameNanos The frame time in nanoseconds.
+     */
+
+    public final void record(long frameNanos) {
+        samples[nextSample] = frameNanos;
+        nextSample = (nextSample + 1) % samples.length;
+        if (sampleCount < samples.length) {
+            sampleCount++;
+        }
+        framesInWindow++;
+    }
+
+    /**
+     * Records the number of pixels written by one frame.
+     *
+     * @param pixels The pixels written to the drawing surface.
+     */
+
+    public final void recordPixels(long pixels) {
+        pixelsInWindow += pixels;
+    }
+
+    /**
+     * Returns a frame time percentile over the recent frames.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The frame time in nanoseconds, or 0 if no frame was recorded.
+     */
+
+    public final long percentile(double percentile) {
+        if (sampleCount == 0) {
+            return 0;
+        }
+        System.arraycopy(samples, 0, scratch, 0, sampleCount);
+        Arrays.sort(scratch, 0, sampleCount);
+        int index = (int) Math.ceil(percentile / 100 * sampleCount) - 1;
+        return scratch[Math.max(0, Math.min(sampleCount - 1, index))];
+    }
+
+    /**
+     *
+     * @param now           The current time in nanoseconds.
+     * @param intervalNanos The time between reports in nanoseconds.
+     * @return true if at least the interval has passed since the last report.
+     */
+
+    public final boolean isReportDue(long now, long intervalNanos) {
+        return now - windowStart >= intervalNanos;
+    }
+
+    /**
+     * Summarises the frames since the last report and starts a new window.
+     *
+     * @param now The current time in nanoseconds.
+     * @return A one line summary of frame rate and frame times.
+     */
+
+    public final String report(long now) {
+        double seconds = (now - windowStart) / 1e9;
+        String summary = String.format("fps=%.1f frame p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms pixels/frame=%d",
+                framesInWindow / seconds, percentile(50) / 1e6, percentile(95) / 1e6, percentile(99) / 1e6,
+                percentile(100) / 1e6, framesInWindow == 0 ? 0 : pixelsInWindow / framesInWindow);
+        framesInWindow = 0;
+        pixelsInWindow = 0;
+        windowStart = now;
+        return summary;
+    }
+}
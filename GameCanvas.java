@@ -0,0 +1,125 @@
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.VolatileImage;
+
+/**
+ * Draws the game world with active rendering. This is the alternative to the
+ * passive {@link GamePanel}: instead of asking Swing to repaint and waiting
+ * for it, the frame timer calls {@link #renderFrame()}, which draws the newest
+ * snapshot published by the SimulationThread into a VolatileImage back buffer and flips it onto the screen through
+ * a BufferStrategy straight away. Frame times are therefore under the loop's
+ * control and can be measured. The back buffer keeps the previous frame, so
+ * only what changed is redrawn into it, unless its contents were lost.
+ * VolatileImage and BufferStrategy fall back to system memory surfaces when
+ * no accelerated pipeline is available, so this also works on the software
+ * pipeline.
+ */
+
+public final class GameCanvas extends Canvas {
+    private static final long serialVersionUID = 1L;
+
+    private final SimulationThread simulation;
+    private final IncrementalRenderer renderer;
+    private final FrameStats frameStats;
+    private final ProfilerOverlay overlay;
+    private VolatileImage backBuffer;
+
+    /**
+     * Constructor for GameCanvas.
+     * Sets up the canvas to draw and control the world of a simulation.
+     *
+     * @param simulation The simulation whose snapshots are drawn and which
+     *                   receives the player's commands.
+     * @param frameStats Receives the time taken by each frame.
+     */
+
+    public GameCanvas(SimulationThread simulation, FrameStats frameStats) {
+        setPreferredSize(new Dimension(World.WIDTH, World.HEIGHT));
+        setBackground(Color.BLACK);
+        setIgnoreRepaint(true); // Frames come from the game loop, not from AWT
+
+        this.simulation = simulation;
+        this.renderer = new IncrementalRenderer(new GameRenderer(), Color.BLACK, World.WIDTH, World.HEIGHT);
+        this.frameStats = frameStats;
+        this.overlay = new ProfilerOverlay(simulation.getProfiler());
+
+        setFocusable(true);
+        addKeyListener(new GameInput(simulation.getInput(), overlay));
+    }
+
+    /**
+     * Draws and shows one frame of the newest snapshot. Nothing is drawn
+     * until the canvas is on screen.
+     *
+     * @return The newest snapshot.
+     */
+
+    public final WorldSnapshot renderFrame() {
+        WorldSnapshot snapshot = simulation.getSnapshot();
+        if (!isDisplayable() || getWidth() <= 0 || getHeight() <= 0) {
+            return snapshot;
+        }
+        TickProfiler profiler = simulation.getProfiler();
+        long profileStart = profiler.begin();
+        long start = System.nanoTime();
+        double interpolation = simulation.getInterpolation(snapshot, start);
+        BufferStrategy strategy = getBufferStrategy();
+        if (strategy == null) {
+            createBufferStrategy(2);
+            strategy = getBufferStrategy();
+        }
+
+        // Repeat until the frame reaches the screen intact
+        do {
+            do {
+                renderBackBuffer(snapshot, interpolation);
+                Graphics g = strategy.getDrawGraphics();
+                try {
+                    g.drawImage(backBuffer, 0, 0, null);
+                    overlay.render((Graphics2D) g, getWidth());
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+
+        frameStats.record(System.nanoTime() - start);
+        frameStats.recordPixels(renderer.getPixelsTouched());
+        profiler.end(TickProfiler.RENDER, profileStart, snapshot.getTickCount());
+        return snapshot;
+    }
+
+    /**
+     * Brings the back buffer up to date with the world, recreating the buffer
+     * when it no longer matches the screen and redrawing all of it when its
+     * contents were lost.
+     */
+
+    private final void renderBackBuffer(WorldSnapshot snapshot, double interpolation) {
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        if (backBuffer == null || backBuffer.getWidth() != getWidth() || backBuffer.getHeight() != getHeight()) {
+            backBuffer = configuration.createCompatibleVolatileImage(getWidth(), getHeight());
+            renderer.invalidate();
+        }
+        do {
+            int status = backBuffer.validate(configuration);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                backBuffer = configuration.createCompatibleVolatileImage(getWidth(), getHeight());
+            }
+            if (status != VolatileImage.IMAGE_OK) {
+                renderer.invalidate();
+            }
+            Graphics2D g2d = backBuffer.createGraphics();
+            try {
+                renderer.render(g2d, snapshot, interpolation);
+            } finally {
+                g2d.dispose();
+            }
+            if (backBuffer.contentsLost()) {
+                renderer.invalidate();
+            }
+        } while (backBuffer.contentsLost());
+    }
+}
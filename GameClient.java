@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Plays a match hosted by a GameServer over UDP.
+ * The client keeps a World that mirrors the server's, built from the
+ * GameConfig the server answers its first INPUT datagrams with, so both play
+ * by the same balance whatever the server was started with. The world is
+ * never stepped here; instead, every state the server sends replaces it with
+ * readState, so the display draws it like a local world. States arrive
+ * encoded by DeltaCodec against one the client acknowledged, so the last
+ * HISTORY decoded states are kept to decode against, and every decoded state
+ * is checked against the CRC32 the server sent with it. A state that fails the
+ * check makes the client drop its history and ask for a whole one.
+ * Once per tick the client numbers the commands given since the last tick
+ * and sends them to the server together with the ones the server has not yet
+ * applied, so a lost datagram does not lose a command. The client controlling
+ * the player moves it straight away instead of waiting a round trip for the
+ * server. Every new state then shows where the server put the player after
+ * the last input it applied; the inputs it has not applied yet are replayed
+ * on top, and a player that ends up elsewhere than predicted is corrected. Shots
+ * are not predicted, as the server decides what they hit.
+ * The client is driven by a single thread, the SimulationThread, through
+ * {@link #tick(int)}.
+ */
+
+public final class GameClient {
+    // Inputs kept for replaying on top of a state; a longer wait for the
+    // server leaves the older ones out of the prediction
+    private static final int PENDING = 128;
+
+    // How often the first datagram is repeated while connecting
+    private static final long CONNECT_RETRY_NANOS = 100_000_000L;
+
+    private final DatagramChannel channel;
+    private final SocketAddress server;
+    private final LossyLink link;
+    private World world;
+    private boolean connected = true;
+
+    // The last HISTORY decoded states, by tick % HISTORY
+    private final byte[][] states = new byte[GameServer.HISTORY][];
+    private final int[] stateLengths = new int[GameServer.HISTORY];
+    private final long[] stateTicks = new long[GameServer.HISTORY];
+    private final CRC32 crc = new CRC32();
+    private long latestTick = -1;
+    private boolean wholeStateNeeded = true;
+
+    // Inputs by number, and the last one the server applied
+    private final int[] pending = new int[PENDING];
+    private int sequence = -1;
+    private int applied = -1;
+    private boolean player;
+
+    private final ByteBuffer incoming = ByteBuffer.allocate(GameServer.MAX_DATAGRAM);
+    private final ByteBuffer outgoing = ByteBuffer.allocate(GameServer.INPUT_HEADER + GameServer.INPUT_REDUNDANCY);
+
+    private long statesReceived;
+    private long badStates;
+    private long corrections;
+    private long bytesIn;
+    private long bytesOut;
+
+    private GameClient(DatagramChannel channel, SocketAddress server, LossyLink link) {
+        this.channel = channel;
+        this.server = server;
+        this.link = link;
+        for (int i = 0; i < GameServer.HISTORY; i++) {
+            stateTicks[i] = -1;
+        }
+    }
+
+    /**
+     * Joins the match on a server, builds the world from the balance it
+     * sends and waits for its first state.
+     *
+     * @param server    The address of the server.
+     * @param link      The link every datagram the client sends goes
+     *                  through.
+     * @param gameState The game state the mirrored world reports to.
+     * @param timeout   The longest time to wait for the server, in
+     *                  nanoseconds.
+     * @return A client whose world shows the first state.
+     * @throws IOException if the channel fails or the server does not answer
+     *                     in time.
+     */
+
+    public static final GameClient connect(SocketAddress server, LossyLink link, GameState gameState, long timeout)
+            throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        GameClient client = new GameClient(channel, server, link);
+        try {
+            channel.connect(server);
+            channel.configureBlocking(false);
+            long start = System.nanoTime();
+            long lastSent = start - CONNECT_RETRY_NANOS;
+            while (client.latestTick < 0) {
+                long now = System.nanoTime();
+                if (now - start > timeout) {
+                    throw new IOException("No answer from " + server);
+                }
+                if (now - lastSent >= CONNECT_RETRY_NANOS) {
+                    client.sendInput(now);
+                    lastSent = now;
+                }
+                client.link.flush(channel, now);
+                client.receive(gameState);
+                Thread.sleep(1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (InterruptedException e) {
+            channel.close();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting to " + server);
+        }
+        return client;
+    }
+
+    /**
+     * Applies the newest state from the server, sends one tick's commands and
+     * predicts where they move the player. A failed channel ends the
+     * connection; the world then stays as it was.
+     *
+     * @param commands The commands given since the last tick.
+     */
+
+    public final void tick(int commands) {
+        if (!connected) {
+            return;
+        }
+        try {
+            receive(null);
+            sequence++;
+            pending[sequence % PENDING] = commands;
+            long now = System.nanoTime();
+            sendInput(now);
+            link.flush(channel, now);
+            if (player) {
+                predict(commands);
+            }
+        } catch (IOException e) {
+            System.err.println("Lost the connection to the server: " + e.getMessage());
+            close();
+        }
+    }
+
+    // Sends the acknowledgement and the inputs the server has not applied
+    private final void sendInput(long now) throws IOException {
+        int first = Math.max(applied + 1, sequence - GameServer.INPUT_REDUNDANCY + 1);
+        int count = Math.max(0, sequence - first + 1);
+        outgoing.clear();
+        outgoing.put(GameServer.INPUT);
+        outgoing.putLong(wholeStateNeeded ? -1 : latestTick);
+        outgoing.putInt(Math.max(first, 0));
+        outgoing.put((byte) count);
+        for (int number = first; number <= sequence; number++) {
+            outgoing.put((byte) pending[number % PENDING]);
+        }
+        outgoing.flip();
+        bytesOut += outgoing.remaining();
+        link.send(channel, outgoing, server, now);
+    }
+
+    // Decodes every state that has arrived and applies the newest; the
+    // first configuration creates the world, and states that arrive before it
+    // are dropped
+    private final void receive(GameState gameState) throws IOException {
+        int newest = -1;
+        int newestApplied = 0;
+        boolean newestPlayer = false;
+        while (true) {
+            incoming.clear();
+            try {
+                if (channel.receive(incoming) == null) {
+                    break;
+                }
+            } catch (PortUnreachableException e) {
+                // The server is not up yet, or has stopped
+                break;
+            }
+            incoming.flip();
+            bytesIn += incoming.remaining();
+            if (incoming.remaining() == GameServer.CONFIG_LENGTH && incoming.get(0) == GameServer.CONFIG) {
+                if (world == null) {
+                    createWorld(gameState);
+                }
+                continue;
+            }
+            if (world == null || incoming.remaining() < GameServer.STATE_HEADER
+                    || incoming.get() != GameServer.STATE) {
+                continue;
+            }
+            long tick = incoming.getLong();
+            long base = incoming.getLong();
+            int lastApplied = incoming.getInt();
+            boolean isPlayer = incoming.get() == 1;
+            int size = incoming.getInt();
+            int checksum = incoming.getInt();
+            if (tick <= latestTick || size < 0) {
+                continue;
+            }
+
+            int slot = decode(tick, base, size);
+            if (slot < 0) {
+                continue;
+            }
+            crc.reset();
+            crc.update(states[slot], 0, size);
+            if ((int) crc.getValue() != checksum) {
+                badStates++;
+                wholeStateNeeded = true;
+                for (int i = 0; i < GameServer.HISTORY; i++) {
+                    stateTicks[i] = -1;
+                }
+                continue;
+            }
+            stateTicks[slot] = tick;
+            stateLengths[slot] = size;
+            latestTick = tick;
+            wholeStateNeeded = false;
+            statesReceived++;
+            newest = slot;
+            newestApplied = lastApplied;
+            newestPlayer = isPlayer;
+        }
+        if (newest >= 0) {
+            apply(newest, newestApplied, newestPlayer);
+        }
+    }
+
+    // Builds the world from the configuration in the current datagram; a
+    // malformed one is ignored like any other malformed datagram
+    private final void createWorld(GameState gameState) {
+        incoming.position(1);
+        try {
+            world = new World(gameState, GameConfig.read(incoming), 0);
+        } catch (IllegalArgumentException e) {
+            // The server sends it again while no state is acknowledged
+        }
+    }
+
+    // Decodes the state in the current datagram into its history slot
+    private final int decode(long tick, long base, int size) {
+        int slot = (int) (tick % GameServer.HISTORY);
+        if (states[slot] == null || states[slot].length < size) {
+            states[slot] = new byte[size];
+        }
+        stateTicks[slot] = -1;
+        byte[] target = states[slot];
+        int length = incoming.remaining();
+        if (base < 0) {
+            if (length != size) {
+                return -1;
+            }
+            incoming.get(target, 0, size);
+            return slot;
+        }
+
+        int baseSlot = (int) (base % GameServer.HISTORY);
+        if (base >= tick || tick - base >= GameServer.HISTORY || stateTicks[baseSlot] != base) {
+            return -1;
+        }
+        int copied = Math.min(size, stateLengths[baseSlot]);
+        System.arraycopy(states[baseSlot], 0, target, 0, copied);
+        for (int i = copied; i < size; i++) {
+            target[i] = 0;
+        }
+        try {
+            DeltaCodec.decode(incoming.array(), incoming.position(), length, target);
+        } catch (IndexOutOfBoundsException e) {
+            // A corrupt encoding fails the checksum like any other
+        }
+        return slot;
+    }
+
+    // Replaces the world with a state and replays the inputs the server has
+    // not applied yet on top
+    private final void apply(int slot, int lastApplied, boolean isPlayer) {
+        int predictedX = world.getPlayer().getX();
+        world.readState(ByteBuffer.wrap(states[slot], 0, stateLengths[slot]));
+        boolean wasPlayer = player;
+        player = isPlayer;
+        applied = Math.max(applied, lastApplied);
+        if (!player) {
+            return;
+        }
+        for (int number = Math.max(applied + 1, sequence - PENDING + 1); number <= sequence; number++) {
+            predict(pending[number % PENDING]);
+        }
+        if (wasPlayer && world.getPlayer().getX() != predictedX) {
+            corrections++;
+        }
+    }
+
+    private final void predict(int commands) {
+        if ((commands & PlayerCommands.MOVE_LEFT) != 0) {
+            world.movePlayerLeft();
+        }
+        if ((commands & PlayerCommands.MOVE_RIGHT) != 0) {
+            world.movePlayerRight();
+        }
+    }
+
+    /**
+     * Closes the channel. The client then ignores further ticks.
+     */
+
+    public final void close() {
+        connected = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close the connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     *
+     * @return The world mirroring the server's; only the thread calling
+     *         tick may touch it.
+     */
+
+    public final World getWorld() {
+        return world;
+    }
+
+    /**
+     *
+     * @return true if this client controls the player.
+     */
+
+    public final boolean isPlayer() {
+        return player;
+    }
+
+    /**
+     *
+     * @return The newest tick received from the server.
+     */
+
+    public final long getLatestTick() {
+        return latestTick;
+    }
+
+    public final long getStatesReceived() {
+        return statesReceived;
+    }
+
+    /**
+     *
+     * @return The states that failed their checksum.
+     */
+
+    public final long getBadStates() {
+        return badStates;
+    }
+
+    /**
+     *
+     * @return The states that put the player somewhere other than where it
+     *         was predicted.
+     */
+
+    public final long getCorrections() {
+        return corrections;
+    }
+
+    public final long getBytesReceived() {
+        return bytesIn;
+    }
+
+    public final long getBytesSent() {
+        return bytesOut;
+    }
+}
@@ -0,0 +1,242 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The balance constants of a world: the size of the alien formation, how
+ * often aliens fire, how fast bullets fly, how much of a shield a bullet
+ * destroys, how many shields there are and how many alien bullets can be in
+ * flight.
+ * Every world plays by one configuration, so worlds with different balance
+ * can be simulated side by side, as the BalanceTuner does. A configuration
+ * is immutable; the with methods return changed copies.
+ * A GameServer sends its configuration to every client that joins, written
+ * by write and read back by read.
+ */
+
+public final class GameConfig {
+    /**
+     * The balance the game is played with.
+     */
+    public static final GameConfig DEFAULT = new GameConfig(4, 5, Alien.FIRE_DELAY_TICKS,
+            Alien.FIRE_JITTER_TICKS, Bullet.BULLET_SPEED, Obstacle.BLAST_RADIUS, Obstacle.BLAST_DEPTH);
+
+    /**
+     * A load test rather than a game: 10,000 aliens that fire about every
+     * eight ticks, which keeps around 100,000 bullets in flight, fifty
+     * shields, a formation that never descends and a player that cannot be
+     * hit, so the load holds for as long as the game runs.
+     */
+    public static final GameConfig STRESS = DEFAULT.withFormation(100, 100).withAlienFire(4, 8)
+            .withObstacles(50).withAlienBulletCapacity(1 << 17).withFormationDrop(0).withInvinciblePlayer(true);
+
+    /**
+     * The number of bytes write writes.
+     */
+    public static final int SIZE = 10 * 4 + 1;
+
+    // Shields in each wave, alien bullets in flight and formation step down
+    private static final int DEFAULT_OBSTACLES = 5;
+    private static final int DEFAULT_ALIEN_BULLET_CAPACITY = 1024;
+    private static final int DEFAULT_FORMATION_DROP = 10;
+
+    private final int formationRows;
+    private final int formationColumns;
+    private final int alienFireDelayTicks;
+    private final int alienFireJitterTicks;
+    private final int bulletSpeed;
+    private final int blastRadius;
+    private final int blastDepth;
+    private final int obstacleCount;
+    private final int alienBulletCapacity;
+    private final int formationDrop;
+    private final boolean invinciblePlayer;
+
+    /**
+     * Constructs a configuration.
+     *
+     * @param formationRows        The number of rows of aliens in each wave.
+     * @param formationColumns     The number of aliens in each row.
+     * @param alienFireDelayTicks  The ticks an alien waits at least between
+     *                             two shots.
+     * @param alienFireJitterTicks The range of the random extra wait.
+     * @param bulletSpeed          The distance every bullet moves per tick.
+     * @param blastRadius          The shield cells cleared on either side of
+     *                             a bullet impact.
+     * @param blastDepth           The rows of shield cells a bullet impact
+     *                             clears.
+     */
+
+    public GameConfig(int formationRows, int formationColumns, int alienFireDelayTicks, int alienFireJitterTicks,
+            int bulletSpeed, int blastRadius, int blastDepth) {
+        this(formationRows, formationColumns, alienFireDelayTicks, alienFireJitterTicks, bulletSpeed, blastRadius,
+                blastDepth, DEFAULT_OBSTACLES, DEFAULT_ALIEN_BULLET_CAPACITY, DEFAULT_FORMATION_DROP, false);
+    }
+
+    private GameConfig(int formationRows, int formationColumns, int alienFireDelayTicks, int alienFireJitterTicks,
+            int bulletSpeed, int blastRadius, int blastDepth, int obstacleCount, int alienBulletCapacity,
+            int formationDrop, boolean invinciblePlayer) {
+        if (formationRows <= 0 || formationColumns <= 0 || alienFireDelayTicks <= 0 || alienFireJitterTicks <= 0
+                || bulletSpeed <= 0 || blastRadius < 0 || blastDepth <= 0 || obstacleCount < 0
+                || alienBulletCapacity <= 0 || formationDrop < 0) {
+            throw new IllegalArgumentException("Invalid game configuration");
+        }
+        this.formationRows = formationRows;
+        this.formationColumns = formationColumns;
+        this.alienFireDelayTicks = alienFireDelayTicks;
+        this.alienFireJitterTicks = alienFireJitterTicks;
+        this.bulletSpeed = bulletSpeed;
+        this.blastRadius = blastRadius;
+        this.blastDepth = blastDepth;
+        this.obstacleCount = obstacleCount;
+        this.alienBulletCapacity = alienBulletCapacity;
+        this.formationDrop = formationDrop;
+        this.invinciblePlayer = invinciblePlayer;
+    }
+
+    /**
+     * Reads a configuration written by write.
+     *
+     * @param buffer The buffer to read from, with at least SIZE bytes
+     *               remaining.
+     * @return The configuration.
+     * @throws IllegalArgumentException if the values read are not a valid
+     *                                  configuration.
+     */
+
+    public static final GameConfig read(ByteBuffer buffer) {
+        return new GameConfig(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                buffer.get() != 0);
+    }
+
+    /**
+     * Writes every setting of this configuration.
+     *
+     * @param buffer The buffer to write to, with at least SIZE bytes
+     *               remaining.
+     */
+
+    public final void write(ByteBuffer buffer) {
+        buffer.putInt(formationRows);
+        buffer.putInt(formationColumns);
+        buffer.putInt(alienFireDelayTicks);
+        buffer.putInt(alienFireJitterTicks);
+        buffer.putInt(bulletSpeed);
+        buffer.putInt(blastRadius);
+        buffer.putInt(blastDepth);
+        buffer.putInt(obstacleCount);
+        buffer.putInt(alienBulletCapacity);
+        buffer.putInt(formationDrop);
+        buffer.put(invinciblePlayer ? (byte) 1 : (byte) 0);
+    }
+
+    public final GameConfig withFormation(int rows, int columns) {
+        return new GameConfig(rows, columns, alienFireDelayTicks, alienFireJitterTicks, bulletSpeed, blastRadius,
+                blastDepth, obstacleCount, alienBulletCapacity, formationDrop, invinciblePlayer);
+    }
+
+    public final GameConfig withAlienFire(int delayTicks, int jitterTicks) {
+        return new GameConfig(formationRows, formationColumns, delayTicks, jitterTicks, bulletSpeed, blastRadius,
+                blastDepth, obstacleCount, alienBulletCapacity, formationDrop, invinciblePlayer);
+    }
+
+    public final GameConfig withBulletSpeed(int speed) {
+        return new GameConfig(formationRows, formationColumns, alienFireDelayTicks, alienFireJitterTicks, speed,
+                blastRadius, blastDepth, obstacleCount, alienBulletCapacity, formationDrop, invinciblePlayer);
+    }
+
+    public final GameConfig withBlast(int radius, int depth) {
+        return new GameConfig(formationRows, formationColumns, alienFireDelayTicks, alienFireJitterTicks,
+                bulletSpeed, radius, depth, obstacleCount, alienBulletCapacity, formationDrop, invinciblePlayer);
+    }
+
+    public final GameConfig withObstacles(int count) {
+        return new GameConfig(formationRows, formationColumns, alienFireDelayTicks, alienFireJitterTicks,
+                bulletSpeed, blastRadius, blastDepth, count, alienBulletCapacity, formationDrop, invinciblePlayer);
+    }
+
+    /**
+     *
+     * @param capacity The most alien bullets in flight at once; aliens do not
+     *                 fire while this many are.
+     * @return A copy of this configuration with the given capacity.
+     */
+
+    public final GameConfig withAlienBulletCapacity(int capacity) {
+        return new GameConfig(formationRows, formationColumns, alienFireDelayTicks, alienFireJitterTicks,
+                bulletSpeed, blastRadius, blastDepth, obstacleCount, capacity, formationDrop, invinciblePlayer);
+    }
+
+    /**
+     *
+     * @param drop How far the formation moves down each time it reaches an
+     *             edge; 0 keeps it at the top of the field.
+     * @return A copy of this configuration with the given drop.
+     */
+
+    public final GameConfig withFormationDrop(int drop) {
+        return new GameConfig(formationRows, formationColumns, alienFireDelayTicks, alienFireJitterTicks,
+                bulletSpeed, blastRadius, blastDepth, obstacleCount, alienBulletCapacity, drop, invinciblePlayer);
+    }
+
+    /**
+     *
+     * @param invincible true if neither aliens nor their bullets can hurt
+     *                   the player.
+     * @return A copy of this configuration with the given invincibility.
+     */
+
+    public final GameConfig withInvinciblePlayer(boolean invincible) {
+        return new GameConfig(formationRows, formationColumns, alienFireDelayTicks, alienFireJitterTicks,
+                bulletSpeed, blastRadius, blastDepth, obstacleCount, alienBulletCapacity, formationDrop, invincible);
+    }
+
+    public final int getFormationRows() {
+        return formationRows;
+    }
+
+    public final int getFormationColumns() {
+        return formationColumns;
+    }
+
+    public final int getAlienFireDelayTicks() {
+        return alienFireDelayTicks;
+    }
+
+    public final int getAlienFireJitterTicks() {
+        return alienFireJitterTicks;
+    }
+
+    public final int getBulletSpeed() {
+        return bulletSpeed;
+    }
+
+    public final int getBlastRadius() {
+        return blastRadius;
+    }
+
+    public final int getBlastDepth() {
+        return blastDepth;
+    }
+
+    public final int getObstacleCount() {
+        return obstacleCount;
+    }
+
+    public final int getAlienBulletCapacity() {
+        return alienBulletCapacity;
+    }
+
+    public final int getFormationDrop() {
+        return formationDrop;
+    }
+
+    public final boolean isPlayerInvincible() {
+        return invinciblePlayer;
+    }
+
+    @Override
+    public final String toString() {
+        return "formation=" + formationRows + "x" + formationColumns + " fire=" + alienFireDelayTicks + "+"
+                + alienFireJitterTicks + " speed=" + bulletSpeed + " blast=" + blastRadius + "x" + blastDepth;
+    }
+}
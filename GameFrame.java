@@ -1,31 +1,187 @@
-
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 public final class GameFrame extends JFrame {
     private static final int WINDOW_WIDTH = 800;
     private static final int WINDOW_HEIGHT = 600;
 
+    // Simulation and render rates for the game loop; a GameServer ticks at
+    // the same rate as its clients
+    public static final int TICKS_PER_SECOND = 100;
+    private static final int FRAMES_PER_SECOND = 60;
+
+    // Frame statistics are printed this often
+    private static final long REPORT_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final SimulationThread simulation;
+    private final FrameStats frameStats;
+    private final LoadReport loadReport;
+    private final Timer frameTimer;
+    private int lastWave;
+    private HighScoreStore highScores;
+    private String player;
+
     /**
      * Constructor to create and set up the game frame.
+     * The world is stepped on its own SimulationThread; this frame only draws
+     * the snapshots it publishes, from a timer on the event dispatch thread.
+     *
+     * @param activeRendering true to draw with a BufferStrategy on a Canvas,
+     *                        false to let Swing repaint a JPanel.
+     */
+
+    public GameFrame(boolean activeRendering) {
+        this(activeRendering, new World(GameState.getInstance()), null);
+    }
+
+    /**
+     * Constructor to create a game frame for a given world, optionally
+     * recording the session.
+     *
+     * @param activeRendering true to draw with a BufferStrategy on a Canvas,
+     *                        false to let Swing repaint a JPanel.
+     * @param world           The world to play, which must not have been
+     *                        stepped yet.
+     * @param recorder        Records the input of every tick, or null.
+     */
+
+    public GameFrame(boolean activeRendering, World world, ReplayRecorder recorder) {
+        this(activeRendering, world, recorder, false);
+    }
+
+    /**
+     * Constructor to create a game frame for a given world, optionally
+     * recording the session or reporting the load for a stress run.
+     *
+     * @param activeRendering true to draw with a BufferStrategy on a Canvas,
+     *                        false to let Swing repaint a JPanel.
+     * @param world           The world to play, which must not have been
+     *                        stepped yet.
+     * @param recorder        Records the input of every tick, or null.
+     * @param stress          true to profile every tick and print a
+     *                        LoadReport with the frame statistics, and to
+     *                        stop keeping rewind history.
+     */
+
+    public GameFrame(boolean activeRendering, World world, ReplayRecorder recorder, boolean stress) {
+        this(activeRendering, new SimulationThread(world, TICKS_PER_SECOND), recorder, stress);
+    }
+
+    /**
+     * Constructor to create a game frame for a match hosted by a GameServer.
+     *
+     * @param activeRendering true to draw with a BufferStrategy on a Canvas,
+     *                        false to let Swing repaint a JPanel.
+     * @param client          The client connected to the server.
      */
 
-    public GameFrame() {
+    public GameFrame(boolean activeRendering, GameClient client) {
+        this(activeRendering, new SimulationThread(client, TICKS_PER_SECOND), null, false);
+    }
+
+    private GameFrame(boolean activeRendering, SimulationThread simulation, ReplayRecorder recorder,
+            boolean stress) {
         setTitle("Space Invaders");
         setSize(WINDOW_WIDTH, WINDOW_HEIGHT);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        GamePanel gamePanel = new GamePanel();
-        add(gamePanel);
+        this.simulation = simulation;
+        simulation.setRecorder(recorder);
+        frameStats = new FrameStats(1024);
+        if (stress) {
+            simulation.disableRewind();
+            simulation.getProfiler().setEnabled(true);
+            loadReport = new LoadReport(simulation.getProfiler());
+        } else {
+            loadReport = null;
+        }
+
+        ActionListener renderer;
+        if (activeRendering) {
+            GameCanvas gameCanvas = new GameCanvas(simulation, frameStats);
+            add(gameCanvas);
+            renderer = new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    update(gameCanvas.renderFrame());
+                }
+            };
+        } else {
+            GamePanel gamePanel = new GamePanel(simulation, frameStats);
+            add(gamePanel);
+            renderer = new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    update(gamePanel.renderFrame());
+                }
+            };
+        }
+
+        frameTimer = new Timer(1000 / FRAMES_PER_SECOND, renderer);
 
-        Timer timer = new Timer(10, new ActionListener() {
+        // Stopping the simulation finishes the replay before the JVM exits
+        addWindowListener(new WindowAdapter() {
             @Override
-            public void actionPerformed(ActionEvent e) {
-                gamePanel.update();
-                gamePanel.repaint();
+            public void windowClosing(WindowEvent e) {
+                frameTimer.stop();
+                simulation.stop();
             }
         });
-        timer.start();
+
+        simulation.start();
+        frameTimer.start();
+    }
+
+    /**
+     * Records the score in a store when the game is over. Must be called on
+     * the event dispatch thread.
+     *
+     * @param store  The store to record to; closed when the game is over.
+     * @param player The name to record the score under.
+     */
+
+    public final void keepScores(HighScoreStore store, String player) {
+        this.highScores = store;
+        this.player = player;
+    }
+
+    /**
+     * Reacts to the progress of the game shown in a frame that was just drawn.
+     *
+     * @param snapshot The snapshot that was drawn.
+     */
+
+    private final void update(WorldSnapshot snapshot) {
+        if (snapshot.getWave() != lastWave) {
+            lastWave = snapshot.getWave();
+            System.out.println("Game Reset!");
+        }
+
+        if (snapshot.isGameOver()) {
+            frameTimer.stop();
+            simulation.stop();
+            System.out.println(snapshot.getScore());
+            if (highScores != null) {
+                highScores.record(player, snapshot.getScore(), snapshot.getWave(), snapshot.getTickCount());
+                Main.closeScores(highScores, player);
+            }
+            System.out.println("Game Over!");
+            System.exit(0);
+        }
+
+        reportFrameStats(snapshot);
+    }
+
+    private final void reportFrameStats(WorldSnapshot snapshot) {
+        long now = System.nanoTime();
+        if (frameStats.isReportDue(now, REPORT_INTERVAL_NANOS)) {
+            System.out.println(frameStats.report(now));
+            if (loadReport != null) {
+                System.out.println(loadReport.report(snapshot, now));
+            }
+        }
     }
 }
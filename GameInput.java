@@ -0,0 +1,75 @@
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+
+/**
+ * Translates key events into player commands for a game world.
+ * Key events arrive on the event dispatch thread while the world is stepped
+ * on the simulation thread, so commands are not applied here but queued on
+ * an InputRing. Before each tick the simulation drains the ring into a
+ * bitmask of the PlayerCommands given since the last tick and passes it to
+ * {@link World#step(int)}, which applies it with {@link PlayerCommands#apply}.
+ * This listener only produces the command bits, so the world itself never
+ * depends on AWT. The same listener is used by every display mode. F3 is not
+ * a player command; it toggles the profiler overlay straight away.
+ */
+
+public final class GameInput implements KeyListener {
+    private final InputRing commands;
+    private final ProfilerOverlay overlay;
+
+    /**
+     * Constructs a listener that queues player commands.
+     *
+     * @param commands The queue read by the simulation.
+     * @param overlay  The overlay toggled by F3.
+     */
+
+    public GameInput(InputRing commands, ProfilerOverlay overlay) {
+        this.commands = commands;
+        this.overlay = overlay;
+    }
+
+    /**
+     * Handles key-typed events. This method is part of the KeyListener interface.
+     *
+     * @param e The KeyEvent object representing the key event.
+     */
+
+    @Override
+    public final void keyTyped(KeyEvent e) {
+    }
+
+    /**
+     * Handles key-pressed events for player movement and actions.
+     * This method is part of the KeyListener interface.
+     *
+     * @param e The KeyEvent object representing the key event.
+     */
+
+    @Override
+    public final void keyPressed(KeyEvent e) {
+        // A full ring drops the key press, like a missed key repeat
+        if (e.getKeyCode() == KeyEvent.VK_LEFT) {
+            commands.offer(PlayerCommands.MOVE_LEFT);
+        } else if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
+            commands.offer(PlayerCommands.MOVE_RIGHT);
+        } else if (e.getKeyCode() == KeyEvent.VK_SPACE) {
+            commands.offer(PlayerCommands.FIRE);
+        } else if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
+            commands.offer(PlayerCommands.REWIND);
+        } else if (e.getKeyCode() == KeyEvent.VK_F3) {
+            overlay.toggle();
+        }
+    }
+
+    /**
+     * Handles key-released events. This method is part of the KeyListener
+     * interface.
+     *
+     * @param e The KeyEvent object representing the key event.
+     */
+
+    @Override
+    public final void keyReleased(KeyEvent e) {
+    }
+}
@@ -0,0 +1,159 @@
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Drives the game with a fixed simulation timestep.
+ * A single Swing timer wakes the loop once per frame. Elapsed time is added to
+ * an accumulator, and the simulation is stepped once for every whole tick in
+ * it, so the tick rate does not depend on how often frames are produced.
+ * Whatever is left over is passed to the renderer as an interpolation factor
+ * between the last two ticks.
+ * Instead of starting the timer, the loop can also be driven by calling
+ * {@link #advance(long)} from a thread of its own, as SimulationThread does.
+ */
+
+public final class GameLoop {
+    /**
+     * Advances the game by one fixed tick.
+     */
+    interface Simulation {
+        void tick();
+    }
+
+    /**
+     * Draws a frame.
+     */
+    interface Renderer {
+        /**
+         * @param alpha How far the frame lies between the previous tick (0) and
+         *              the next one (1).
+         */
+        void render(double alpha);
+    }
+
+    // Upper bound on catch-up work per frame after a long stall
+    private static final int MAX_TICKS_PER_FRAME = 25;
+
+    private final long tickNanos;
+    private final Simulation simulation;
+    private final Renderer renderer;
+    private final Timer timer;
+
+    private long accumulator;
+    private long lastTime;
+    private long tickCount;
+    private boolean running;
+
+    /**
+     * Constructs a loop that is not yet running.
+     *
+     * @param ticksPerSecond  The fixed simulation rate.
+     * @param framesPerSecond The rate at which the loop wakes up to render.
+     * @param simulation      The simulation to step.
+     * @param renderer        The renderer to call once per frame.
+     */
+
+    public GameLoop(int ticksPerSecond, int framesPerSecond, Simulation simulation, Renderer renderer) {
+        if (ticksPerSecond <= 0 || framesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rates must be positive");
+        }
+        this.tickNanos = 1_000_000_000L / ticksPerSecond;
+        this.simulation = simulation;
+        this.renderer = renderer;
+        this.timer = new Timer(Math.max(1, 1000 / framesPerSecond), new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                advance(System.nanoTime());
+            }
+        });
+    }
+
+    /**
+     * Starts the loop. Calling this on a running loop has no effect, so there
+     * is never more than one timer driving the simulation.
+     */
+
+    public final void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        accumulator = 0;
+        lastTime = System.nanoTime();
+        timer.start();
+    }
+
+    /**
+     * Stops the loop.
+     */
+
+    public final void stop() {
+        running = false;
+        timer.stop();
+    }
+
+    /**
+     * Runs every tick that has become due by the given time and then renders
+     * one frame. The timer calls this with the current time; it can also be
+     * called directly with a simulated clock.
+     *
+     * @param now The current time in nanoseconds.
+     */
+
+    public final void advance(long now) {
+        accumulator += now - lastTime;
+        lastTime = now;
+
+        // Drop time we cannot catch up on instead of spiralling
+        if (accumulator > MAX_TICKS_PER_FRAME * tickNanos) {
+            accumulator = MAX_TICKS_PER_FRAME * tickNanos;
+        }
+
+        while (accumulator >= tickNanos) {
+            accumulator -= tickNanos;
+            tickCount++;
+            simulation.tick();
+        }
+        renderer.render(accumulator / (double) tickNanos);
+    }
+
+    /**
+     * Resets the loop clock to the given time without running any ticks.
+     *
+     * @param now The current time in nanoseconds.
+     */
+
+    public final void resetClock(long now) {
+        lastTime = now;
+        accumulator = 0;
+    }
+
+    /**
+     *
+     * @return The time left, in nanoseconds, until the next tick is due as of
+     *         the last call to advance.
+     */
+
+    public final long getNanosUntilNextTick() {
+        return tickNanos - accumulator;
+    }
+
+    /**
+     *
+     * @return The number of ticks run since the loop was created.
+     */
+
+    public final long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     *
+     * @return The length of one tick in nanoseconds.
+     */
+
+    public final long getTickNanos() {
+        return tickNanos;
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.Random;
+
 /**
  * I implement a factory pattern for creating game objects. It contains static
  * methods for creating instances of different game entities
@@ -35,6 +37,38 @@ public final class GameObjectFactory {
         return new Alien(x, y);
     }
 
+    /**
+     * Creates a new Alien object with specified coordinates and id.
+     * 
+     * @param x  The x-coordinate for the alien.
+     * @param y  The y-coordinate for the alien.
+     * @param id The id recorded on the alien's bullets.
+     * @return A new instance of Alien.
+     */
+
+    public static final Alien createAlien(int x, int y, int id) {
+        return new Alien(x, y, id);
+    }
+
+    // Method to create a Formation object
+    /**
+     * Creates a new formation of aliens with every slot alive.
+     * 
+     * @param rows     The number of rows of aliens.
+     * @param columns  The number of aliens in each row.
+     * @param x        The x-coordinate of the top left alien.
+     * @param y        The y-coordinate of the top left alien.
+     * @param spacingX The horizontal distance between neighbouring aliens.
+     * @param spacingY The vertical distance between neighbouring aliens.
+     * @param firstId  The id of the top left alien.
+     * @return A new instance of Formation.
+     */
+
+    public static final Formation createFormation(int rows, int columns, int x, int y, int spacingX, int spacingY,
+            int firstId) {
+        return new Formation(rows, columns, x, y, spacingX, spacingY, firstId);
+    }
+
     // Method to create a bullet object
     /**
      * Creates a new bullet object with specified coordinates.
@@ -55,4 +89,12 @@ public final class GameObjectFactory {
     public static final Obstacle createObstacle() {
         return new Obstacle();
     }
+
+    /**
+     * @param random The source of the obstacle's position.
+     * @return A new instance of an obstacle.
+     */
+    public static final Obstacle createObstacle(Random random) {
+        return new Obstacle(random);
+    }
 }
@@ -1,103 +1,370 @@
+import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws a game world one entity type at a time.
+ * Each entity type has a batch renderer that pulls the whole collection of
+ * that type from a snapshot of the world and draws it with a single colour
+ * change, so there is no per-entity dispatch and no per-entity state change.
+ * Only obstacles, whose cells erode, are drawn from pre-rasterised sprites;
+ * every other entity is a filled rectangle, which the software pipeline
+ * draws faster than a copy of a solid sprite.
+ * Drawing from a WorldSnapshot rather than the live world lets frames be
+ * drawn on another thread than the one stepping the simulation.
+ * Batches are registered by entity type and drawn in registration order, so
+ * a new entity type is supported by registering one more batch renderer.
+ * Batches of entities that rarely change, such as obstacles, are registered
+ * as static so that an incremental renderer can cache them in a background
+ * layer, and every moving batch reports the rectangles it draws so that only
+ * those need to be repainted.
+ */
 
 public final class GameRenderer {
-    // Interface for handling rendering
-    interface RenderHandler {
-        void render(Graphics2D g2d, Object object, RenderHandler nextHandler);
+    /**
+     * Draws every entity of one type in a world.
+     */
+    interface BatchRenderer {
+        /**
+         * @param g2d           The Graphics2D object used for drawing.
+         * @param world         The snapshot whose entities are drawn.
+         * @param interpolation The fraction of a tick since the last update.
+         */
+        void renderBatch(Graphics2D g2d, WorldSnapshot world, double interpolation);
 
-        void setNext(RenderHandler nextHandler);
+        /**
+         * Adds the rectangle covered by every entity drawn by
+         * {@link #renderBatch} to a dirty region.
+         *
+         * @param world         The snapshot whose entities are drawn.
+         * @param interpolation The fraction of a tick since the last update.
+         * @param region        Receives the rectangles.
+         */
+        void addBounds(WorldSnapshot world, double interpolation, DirtyRegion region);
     }
 
-    // Obstacle Renderer as an inner class
-    final class ObstacleRenderer implements RenderHandler {
-        private RenderHandler next;
+    // Area covered by the score display
+    public static final int HUD_WIDTH = 200;
+    public static final int HUD_HEIGHT = 50;
+
+    // Aliens are drawn smaller than their hit box, as Alien.render draws them
+    private static final int ALIEN_DRAWN_SIZE = 15;
+
+    // Obstacle renderer: one sprite per obstacle, redrawn only after it erodes
+    final class ObstacleRenderer implements BatchRenderer {
+        private int epoch = -1;
+        private int[] versions = new int[0];
+        private BufferedImage[] sprites = new BufferedImage[0];
 
-        public final void render(Graphics2D g2d, Object object, RenderHandler nextHandler) {
-            if (object instanceof Obstacle) {
-                ((Obstacle) object).render(g2d);
-            } else if (next != null) {
-                next.render(g2d, object, next);
+        public final void renderBatch(Graphics2D g2d, WorldSnapshot world, double interpolation) {
+            int count = world.getObstacleCount();
+            if (sprites.length < count) {
+                versions = new int[count];
+                sprites = new BufferedImage[count];
+                epoch = -1;
             }
+            // A new epoch means obstacles were removed or replaced
+            if (epoch != world.getObstacleEpoch()) {
+                epoch = world.getObstacleEpoch();
+                Arrays.fill(sprites, null);
+            }
+            for (int i = 0; i < count; i++) {
+                if (sprites[i] == null || versions[i] != world.getObstacleVersion(i)) {
+                    sprites[i] = rasterize(world, i);
+                    versions[i] = world.getObstacleVersion(i);
+                }
+                g2d.drawImage(sprites[i], world.getObstacleX(i), world.getObstacleY(i), null);
+            }
+        }
+
+        private final BufferedImage rasterize(WorldSnapshot world, int index) {
+            BufferedImage sprite = createSprite(Obstacle.WIDTH, Obstacle.HEIGHT, Transparency.BITMASK);
+            Graphics2D g2d = sprite.createGraphics();
+            Obstacle.render(g2d, 0, 0, world.getObstacleCells(), index * Obstacle.CELL_ROWS);
+            g2d.dispose();
+            return sprite;
         }
 
-        public final void setNext(RenderHandler nextHandler) {
-            this.next = nextHandler;
+        public final void addBounds(WorldSnapshot world, double interpolation, DirtyRegion region) {
+            for (int i = 0; i < world.getObstacleCount(); i++) {
+                region.add(world.getObstacleX(i), world.getObstacleY(i), Obstacle.WIDTH, Obstacle.HEIGHT);
+            }
         }
     }
 
-    // Player Renderer as an inner class
-    final class PlayerRenderer implements RenderHandler {
-        private RenderHandler next;
+    // Player renderer
+    final class PlayerRenderer implements BatchRenderer {
+        public final void renderBatch(Graphics2D g2d, WorldSnapshot world, double interpolation) {
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(world.getPlayerX(), world.getPlayerY(), Player.PLAYER_SIZE, Player.PLAYER_SIZE);
+        }
+
+        public final void addBounds(WorldSnapshot world, double interpolation, DirtyRegion region) {
+            region.add(world.getPlayerX(), world.getPlayerY(), Player.PLAYER_SIZE, Player.PLAYER_SIZE);
+        }
+    }
 
-        public final void render(Graphics2D g2d, Object object, RenderHandler nextHandler) {
-            if (object instanceof Player) {
-                ((Player) object).render(g2d);
-            } else if (next != null) {
-                next.render(g2d, object, next);
+    // Alien renderer: every live alien is drawn with a single colour change.
+    // Aliens come in formation order, so those of a row that overlap or touch
+    // follow each other and are filled as one run, as obstacle cells are
+    final class AlienRenderer implements BatchRenderer {
+        public final void renderBatch(Graphics2D g2d, WorldSnapshot world, double interpolation) {
+            g2d.setColor(Color.GREEN);
+            int count = world.getAlienCount();
+            int i = 0;
+            while (i < count) {
+                int x = world.getAlienX(i);
+                int y = world.getAlienY(i);
+                int right = x + ALIEN_DRAWN_SIZE;
+                for (i++; i < count && world.getAlienY(i) == y && world.getAlienX(i) >= x
+                        && world.getAlienX(i) <= right; i++) {
+                    right = Math.max(right, world.getAlienX(i) + ALIEN_DRAWN_SIZE);
+                }
+                g2d.fillRect(x, y, right - x, ALIEN_DRAWN_SIZE);
             }
         }
 
-        public final void setNext(RenderHandler nextHandler) {
-            this.next = nextHandler;
+        public final void addBounds(WorldSnapshot world, double interpolation, DirtyRegion region) {
+            for (int i = 0; i < world.getAlienCount(); i++) {
+                region.add(world.getAlienX(i), world.getAlienY(i), ALIEN_DRAWN_SIZE, ALIEN_DRAWN_SIZE);
+            }
         }
     }
 
-    // Alien Renderer as an inner class
-    final class AlienRenderer implements RenderHandler {
-        private RenderHandler next;
+    // Bullet renderer: both lanes are drawn with a single colour change. Past
+    // a few thousand bullets, a fillRect call each costs more than writing
+    // their pixels into a transparent layer and drawing that in one go
+    final class BulletRenderer implements BatchRenderer {
+        private static final int LAYER_THRESHOLD = 4096;
+
+        private BufferedImage layer;
+        private int[] layerPixels;
 
-        public final void render(Graphics2D g2d, Object object, RenderHandler nextHandler) {
-            if (object instanceof Alien) {
-                ((Alien) object).render(g2d);
-            } else if (next != null) {
-                next.render(g2d, object, next);
+        public final void renderBatch(Graphics2D g2d, WorldSnapshot world, double interpolation) {
+            int lag = lag(world, interpolation);
+            if (world.getAlienBullets().size() + world.getPlayerBullets().size() >= LAYER_THRESHOLD) {
+                renderLayer(g2d, world, lag);
+                return;
             }
+            g2d.setColor(Color.RED);
+            renderLane(g2d, world.getAlienBullets(), lag);
+            renderLane(g2d, world.getPlayerBullets(), lag);
         }
 
-        public final void setNext(RenderHandler nextHandler) {
-            this.next = nextHandler;
+        private final void renderLayer(Graphics2D g2d, WorldSnapshot world, int lag) {
+            if (layer == null) {
+                layer = new BufferedImage(World.WIDTH, World.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+                layerPixels = ((DataBufferInt) layer.getRaster().getDataBuffer()).getData();
+            }
+            Arrays.fill(layerPixels, 0);
+            int color = Color.RED.getRGB();
+            writeLane(world.getAlienBullets(), lag, color);
+            writeLane(world.getPlayerBullets(), lag, color);
+            g2d.drawImage(layer, 0, 0, null);
         }
-    }
 
-    // Bullet Renderer as an inner class
-    final class BulletRenderer implements RenderHandler {
-        private RenderHandler next;
+        private final void writeLane(WorldSnapshot.BulletLane bullets, int lag, int color) {
+            for (int i = 0; i < bullets.size(); i++) {
+                int x = bullets.getX(i);
+                int y = bullets.getY(i) - bullets.getDirection(i) * lag;
+                int left = Math.max(0, x);
+                int right = Math.min(World.WIDTH, x + Bullet.BULLET_SIZE);
+                int bottom = Math.min(World.HEIGHT, y + Bullet.BULLET_SIZE);
+                for (int row = Math.max(0, y); row < bottom; row++) {
+                    int offset = row * World.WIDTH;
+                    for (int column = left; column < right; column++) {
+                        layerPixels[offset + column] = color;
+                    }
+                }
+            }
+        }
 
-        public final void render(Graphics2D g2d, Object object, RenderHandler nextHandler) {
-            if (object instanceof Bullet) {
-                ((Bullet) object).render(g2d);
-            } else if (next != null) {
-                next.render(g2d, object, next);
+        private final void renderLane(Graphics2D g2d, WorldSnapshot.BulletLane bullets, int lag) {
+            for (int i = 0; i < bullets.size(); i++) {
+                int y = bullets.getY(i) - bullets.getDirection(i) * lag;
+                g2d.fillRect(bullets.getX(i), y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE);
             }
         }
 
-        public final void setNext(RenderHandler nextHandler) {
-            this.next = nextHandler;
+        public final void addBounds(WorldSnapshot world, double interpolation, DirtyRegion region) {
+            int lag = lag(world, interpolation);
+            addLaneBounds(world.getAlienBullets(), lag, region);
+            addLaneBounds(world.getPlayerBullets(), lag, region);
+        }
+
+        private final void addLaneBounds(WorldSnapshot.BulletLane bullets, int lag, DirtyRegion region) {
+            for (int i = 0; i < bullets.size(); i++) {
+                int y = bullets.getY(i) - bullets.getDirection(i) * lag;
+                region.add(bullets.getX(i), y, Bullet.BULLET_SIZE, Bullet.BULLET_SIZE);
+            }
+        }
+
+        // Bullets are drawn where they were a fraction of a tick ago
+        private final int lag(WorldSnapshot world, double interpolation) {
+            return (int) Math.round(world.getBulletSpeed() * (1 - interpolation));
         }
     }
 
     // Rest of the GameRenderer class
-    private RenderHandler chain;
+    private final Map<Class<?>, BatchRenderer> renderersByType = new HashMap<>();
+    private final List<BatchRenderer> staticBatches = new ArrayList<>();
+    private final List<BatchRenderer> batches = new ArrayList<>();
+    private final HudLayer hud = new HudLayer();
 
     /**
      * Constructor for GameRenderer.
-     * Initializes the chain of responsibility for rendering.
+     * Registers a batch renderer for every entity type.
      */
 
     public GameRenderer() {
-        // Building the chain of responsibility
-        this.chain = new ObstacleRenderer();
-        RenderHandler playerRenderer = new PlayerRenderer();
-        RenderHandler alienRenderer = new AlienRenderer();
-        RenderHandler bulletRenderer = new BulletRenderer();
+        registerStatic(Obstacle.class, new ObstacleRenderer());
+        register(Player.class, new PlayerRenderer());
+        register(Alien.class, new AlienRenderer());
+        register(Bullet.class, new BulletRenderer());
+        // Additional renderers can be registered here
+    }
+
+    /**
+     * Registers the batch renderer for an entity type, replacing any earlier
+     * one for that type. New types are drawn after the existing ones.
+     *
+     * @param type     The entity type.
+     * @param renderer The renderer drawing every entity of that type.
+     */
+
+    public final void register(Class<?> type, BatchRenderer renderer) {
+        register(type, renderer, batches);
+    }
+
+    /**
+     * Registers the batch renderer for an entity type that rarely changes,
+     * replacing any earlier one for that type. Static batches are drawn
+     * before the moving ones.
+     *
+     * @param type     The entity type.
+     * @param renderer The renderer drawing every entity of that type.
+     */
+
+    public final void registerStatic(Class<?> type, BatchRenderer renderer) {
+        register(type, renderer, staticBatches);
+    }
 
-        this.chain.setNext(playerRenderer);
-        playerRenderer.setNext(alienRenderer);
-        alienRenderer.setNext(bulletRenderer);
-        // Additional renderers can be linked here
+    private final void register(Class<?> type, BatchRenderer renderer, List<BatchRenderer> list) {
+        BatchRenderer previous = renderersByType.put(type, renderer);
+        int index = list.indexOf(previous);
+        if (index >= 0) {
+            list.set(index, renderer);
+        } else {
+            staticBatches.remove(previous);
+            batches.remove(previous);
+            list.add(renderer);
+        }
+    }
+
+    /**
+     * Draws every entity of a world and the score display. The background is
+     * left to the caller.
+     *
+     * @param g2d           The Graphics2D object used for drawing.
+     * @param world         The snapshot to draw.
+     * @param interpolation The fraction of a tick since the last update; fast
+     *                      moving bullets are drawn at the interpolated
+     *                      position.
+     */
+
+    public final void renderWorld(Graphics2D g2d, WorldSnapshot world, double interpolation) {
+        renderStatic(g2d, world);
+        renderMoving(g2d, world, interpolation);
+        renderHud(g2d, world);
+    }
+
+    /**
+     * Draws the static batches.
+     *
+     * @param g2d   The Graphics2D object used for drawing.
+     * @param world The snapshot to draw.
+     */
+
+    public final void renderStatic(Graphics2D g2d, WorldSnapshot world) {
+        for (int i = 0; i < staticBatches.size(); i++) {
+            staticBatches.get(i).renderBatch(g2d, world, 1);
+        }
+    }
+
+    /**
+     * Draws the moving batches.
+     *
+     * @param g2d           The Graphics2D object used for drawing.
+     * @param world         The snapshot to draw.
+     * @param interpolation The fraction of a tick since the last update.
+     */
+
+    public final void renderMoving(Graphics2D g2d, WorldSnapshot world, double interpolation) {
+        for (int i = 0; i < batches.size(); i++) {
+            batches.get(i).renderBatch(g2d, world, interpolation);
+        }
     }
 
-    public final void render(Graphics2D g2d, Object object) {
-        chain.render(g2d, object, chain);
+    /**
+     * Adds the rectangles drawn by {@link #renderMoving} to a dirty region.
+     *
+     * @param world         The snapshot to draw.
+     * @param interpolation The fraction of a tick since the last update.
+     * @param region        Receives the rectangles.
+     */
+
+    public final void addMovingBounds(WorldSnapshot world, double interpolation, DirtyRegion region) {
+        for (int i = 0; i < batches.size(); i++) {
+            batches.get(i).addBounds(world, interpolation, region);
+        }
+    }
+
+    /**
+     * Draws the score display inside the top left HUD_WIDTH x HUD_HEIGHT box.
+     *
+     * @param g2d   The Graphics2D object used for drawing.
+     * @param world The snapshot whose score is shown.
+     */
+
+    public final void renderHud(Graphics2D g2d, WorldSnapshot world) {
+        getHud(world).render(g2d);
+    }
+
+    /**
+     * Returns the cached score display, brought up to date with a snapshot.
+     *
+     * @param world The snapshot whose score is shown.
+     * @return The score display.
+     */
+
+    public final HudLayer getHud(WorldSnapshot world) {
+        hud.update(world);
+        return hud;
+    }
+
+    // Sprites match the screen format where there is one, so the pipeline can
+    // keep an accelerated copy of them. Without a screen, sprites with
+    // transparent pixels get a one bit alpha, which the software pipeline
+    // copies without blending
+    static final BufferedImage createSprite(int width, int height, int transparency) {
+        if (GraphicsEnvironment.isHeadless()) {
+            if (transparency == Transparency.BITMASK) {
+                DirectColorModel model = new DirectColorModel(25, 0xFF0000, 0xFF00, 0xFF, 0x1000000);
+                return new BufferedImage(model, model.createCompatibleWritableRaster(width, height), false, null);
+            }
+            int type = transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+            return new BufferedImage(width, height, type);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, transparency);
     }
 }
@@ -0,0 +1,515 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Hosts a match for GameClients over UDP. The server steps the only real
+ * world; clients send it their input and draw the states it sends back.
+ * One thread does everything on a non-blocking DatagramChannel, waiting in a
+ * Selector until a datagram arrives or the next tick of its GameLoop is due.
+ * A client joins by sending its first INPUT datagram. Every INPUT that
+ * acknowledges no state is answered with a CONFIG datagram holding the
+ * balance of the world, from which the client builds its own, so a lost
+ * answer is sent again. The first client to join controls the player and
+ * the others watch; when the player leaves, the next client takes over.
+ * Clients not heard from for CLIENT_TIMEOUT_NANOS are dropped. The world is
+ * not stepped until a player has joined, and the server stops a little while
+ * after the game is over, so every client gets to see the end.
+ * Every INPUT datagram repeats the client's latest numbered inputs, so a
+ * lost datagram does not lose a command. New inputs are queued and applied
+ * one per tick, so the player moves exactly as its client predicted; a
+ * backlog left by a burst of late datagrams is merged into one tick.
+ * After every tick the state of the world is kept in a short history, and
+ * each client is sent the state encoded by DeltaCodec against the newest one
+ * it acknowledged, or whole once that has left the history. A STATE datagram
+ * also carries a CRC32 of the state, so a client that decodes it against the
+ * wrong base notices and asks for a whole one. A world whose state could
+ * outgrow a datagram is refused when the server is constructed.
+ */
+
+public final class GameServer {
+    // Datagram types
+    public static final byte INPUT = 1;
+    public static final byte STATE = 2;
+    public static final byte CONFIG = 3;
+
+    // INPUT: type, acknowledged tick, first input number, input count, and
+    // then the inputs, one byte each
+    public static final int INPUT_HEADER = 1 + 8 + 4 + 1;
+    public static final int INPUT_REDUNDANCY = 16;
+
+    // STATE: type, tick, base tick, last input applied, role, state length
+    // and checksum, and then the state, whole or encoded against the base
+    // tick
+    public static final int STATE_HEADER = 1 + 8 + 8 + 4 + 1 + 4 + 4;
+
+    // CONFIG: type, and then the GameConfig of the world
+    public static final int CONFIG_LENGTH = 1 + GameConfig.SIZE;
+
+    // Largest payload of a UDP datagram
+    public static final int MAX_DATAGRAM = 65507;
+
+    // States kept to encode against; a client whose acknowledgement is older
+    // gets a whole state
+    public static final int HISTORY = 64;
+
+    // The commands a client may send
+    private static final int PLAYER_COMMANDS = PlayerCommands.MOVE_LEFT | PlayerCommands.MOVE_RIGHT
+            | PlayerCommands.FIRE;
+
+    private static final int MAX_CLIENTS = 16;
+    private static final long CLIENT_TIMEOUT_NANOS = 5_000_000_000L;
+
+    // Inputs queued per client, and the backlog merged into one tick
+    private static final int INPUT_QUEUE = 64;
+    private static final int INPUT_BACKLOG = 4;
+
+    // Ticks the final state is still sent after the game is over
+    private static final int LINGER_TICKS = 200;
+
+    /**
+     * A client, identified by the address its datagrams come from.
+     */
+    private static final class Connection {
+        private final SocketAddress address;
+        private long lastHeard;
+
+        // Newest state the client holds, or -1 if it needs a whole one
+        private long ackTick = -1;
+
+        // Newest input queued and last input applied, by number
+        private int received = -1;
+        private int applied = -1;
+        private final int[] queue = new int[INPUT_QUEUE];
+        private int queueHead;
+        private int queueCount;
+
+        // Traffic since the last report, and over the whole match
+        private long windowBytesIn;
+        private long windowBytesOut;
+        private long bytesIn;
+        private long bytesOut;
+        private long wholeStates;
+        private long deltaStates;
+
+        private Connection(SocketAddress address, long now) {
+            this.address = address;
+            this.lastHeard = now;
+        }
+
+        private final void enqueue(int commands) {
+            if (queueCount == INPUT_QUEUE) {
+                queue[(queueHead + queueCount - 1) % INPUT_QUEUE] |= commands;
+                return;
+            }
+            queue[(queueHead + queueCount) % INPUT_QUEUE] = commands;
+            queueCount++;
+        }
+
+        private final int dequeue() {
+            int commands = queue[queueHead];
+            queueHead = (queueHead + 1) % INPUT_QUEUE;
+            queueCount--;
+            return commands;
+        }
+    }
+
+    private final World world;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final LossyLink link;
+    private final GameLoop gameLoop;
+    private final List<Connection> connections = new ArrayList<>();
+    private Connection player;
+    private volatile boolean running = true;
+
+    // The last HISTORY states, by tick % HISTORY
+    private final byte[][] states = new byte[HISTORY][];
+    private final ByteBuffer[] stateBuffers = new ByteBuffer[HISTORY];
+    private final int[] stateLengths = new int[HISTORY];
+    private final long[] stateTicks = new long[HISTORY];
+    private final int[] checksums = new int[HISTORY];
+    private final CRC32 crc = new CRC32();
+
+    private final ByteBuffer incoming = ByteBuffer.allocate(MAX_DATAGRAM);
+    private final byte[] packet = new byte[MAX_DATAGRAM];
+    private final ByteBuffer packetBuffer = ByteBuffer.wrap(packet);
+    private final ByteBuffer configPacket = ByteBuffer.allocate(CONFIG_LENGTH);
+
+    private int lingerTicks = LINGER_TICKS;
+    private long reportIntervalNanos;
+    private long windowStart;
+    private long now;
+
+    /**
+     * Constructs a server and binds its channel.
+     *
+     * @param world          The world to host, which must not have been
+     *                       stepped yet; from now on only the server thread
+     *                       may touch it.
+     * @param address        The address to listen on; port 0 picks a free
+     *                       one.
+     * @param link           The link every datagram the server sends goes
+     *                       through.
+     * @param ticksPerSecond The fixed simulation rate, which clients must
+     *                       share.
+     * @throws IOException              if the channel cannot be opened or
+     *                                  bound.
+     * @throws IllegalArgumentException if a state of the world could be too
+     *                                  large to send whole in a datagram.
+     */
+
+    public GameServer(World world, SocketAddress address, LossyLink link, int ticksPerSecond) throws IOException {
+        if (world.getMaxStateSize() > MAX_DATAGRAM - STATE_HEADER) {
+            throw new IllegalArgumentException("A state of this world can take " + world.getMaxStateSize()
+                    + " bytes, more than the " + (MAX_DATAGRAM - STATE_HEADER) + " a datagram holds");
+        }
+        this.world = world;
+        this.link = link;
+        configPacket.put(CONFIG);
+        world.getConfig().write(configPacket);
+        configPacket.flip();
+        this.channel = DatagramChannel.open();
+        this.selector = Selector.open();
+        try {
+            channel.bind(address);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            selector.close();
+            throw e;
+        }
+        for (int i = 0; i < HISTORY; i++) {
+            stateTicks[i] = -1;
+        }
+        this.gameLoop = new GameLoop(ticksPerSecond, ticksPerSecond, new GameLoop.Simulation() {
+            @Override
+            public void tick() {
+                try {
+                    step();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }, new GameLoop.Renderer() {
+            @Override
+            public void render(double alpha) {
+            }
+        });
+    }
+
+    /**
+     * Prints a report of the traffic of every client at an interval. Must be
+     * called before the server runs.
+     *
+     * @param nanos The time between reports, or 0 for none.
+     */
+
+    public final void setReportInterval(long nanos) {
+        this.reportIntervalNanos = nanos;
+    }
+
+    /**
+     * Serves the match on the calling thread until it is over or the server
+     * is stopped, and then closes the channel.
+     *
+     * @throws IOException if the channel fails.
+     */
+
+    public final void run() throws IOException {
+        try {
+            now = System.nanoTime();
+            windowStart = now;
+            gameLoop.resetClock(now);
+            while (running) {
+                now = System.nanoTime();
+                receive();
+                dropSilentClients();
+                try {
+                    gameLoop.advance(now);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                link.flush(channel, System.nanoTime());
+                if (reportIntervalNanos > 0 && now - windowStart >= reportIntervalNanos) {
+                    System.out.println(report(now));
+                }
+
+                long wait = Math.min(gameLoop.getNanosUntilNextTick(), link.getNanosUntilNextRelease(now));
+                if (wait >= 1_000_000L) {
+                    selector.select(wait / 1_000_000L);
+                } else {
+                    selector.selectNow();
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            channel.close();
+            selector.close();
+        }
+    }
+
+    /**
+     * Makes run return after the current tick. May be called from any thread.
+     */
+
+    public final void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private final void receive() throws IOException {
+        SocketAddress address;
+        while ((address = channel.receive(incoming)) != null) {
+            incoming.flip();
+            handleInput(address, incoming);
+            incoming.clear();
+        }
+    }
+
+    // Malformed datagrams are ignored, as are new clients once the server
+    // is full
+    private final void handleInput(SocketAddress address, ByteBuffer datagram) throws IOException {
+        int length = datagram.remaining();
+        if (length < INPUT_HEADER || datagram.get() != INPUT) {
+            return;
+        }
+        long ackTick = datagram.getLong();
+        int first = datagram.getInt();
+        int count = datagram.get() & 0xFF;
+        if (first < 0 || count > datagram.remaining() || ackTick > world.getTickCount()) {
+            return;
+        }
+
+        Connection connection = find(address);
+        if (connection == null) {
+            if (connections.size() == MAX_CLIENTS) {
+                return;
+            }
+            connection = new Connection(address, now);
+            connections.add(connection);
+            if (player == null) {
+                player = connection;
+            }
+        }
+        connection.lastHeard = now;
+        connection.ackTick = ackTick;
+        connection.bytesIn += length;
+        connection.windowBytesIn += length;
+        if (ackTick < 0) {
+            sendConfig(connection);
+        }
+
+        // Inputs lost beyond the redundancy count as no input, and a gap too
+        // long to fill starts the queue afresh
+        for (int i = 0; i < count; i++) {
+            int number = first + i;
+            int commands = datagram.get() & PLAYER_COMMANDS;
+            if (number - connection.received > INPUT_QUEUE) {
+                connection.received = number - 1;
+                connection.applied = number - 1;
+                connection.queueCount = 0;
+            }
+            while (connection.received < number - 1) {
+                connection.received++;
+                connection.enqueue(0);
+            }
+            if (number == connection.received + 1) {
+                connection.received = number;
+                connection.enqueue(commands);
+            }
+        }
+        if (connection != player) {
+            connection.queueCount = 0;
+            connection.applied = connection.received;
+        }
+    }
+
+    private final void sendConfig(Connection connection) throws IOException {
+        configPacket.rewind();
+        connection.bytesOut += CONFIG_LENGTH;
+        connection.windowBytesOut += CONFIG_LENGTH;
+        link.send(channel, configPacket, connection.address, now);
+    }
+
+    private final Connection find(SocketAddress address) {
+        for (int i = 0; i < connections.size(); i++) {
+            if (connections.get(i).address.equals(address)) {
+                return connections.get(i);
+            }
+        }
+        return null;
+    }
+
+    private final void dropSilentClients() {
+        for (int i = connections.size() - 1; i >= 0; i--) {
+            if (now - connections.get(i).lastHeard > CLIENT_TIMEOUT_NANOS) {
+                Connection dropped = connections.remove(i);
+                if (dropped == player) {
+                    player = connections.isEmpty() ? null : connections.get(0);
+                }
+            }
+        }
+    }
+
+    // Steps the world with the player's next input and sends the new state
+    private final void step() throws IOException {
+        if (player == null) {
+            return;
+        }
+        if (world.isGameOver()) {
+            if (--lingerTicks <= 0) {
+                running = false;
+            }
+        } else {
+            int commands = 0;
+            if (player.queueCount > 0) {
+                do {
+                    commands |= player.dequeue();
+                    player.applied++;
+                } while (player.queueCount > INPUT_BACKLOG);
+            }
+            world.step(commands);
+        }
+
+        long tick = world.getTickCount();
+        int slot = (int) (tick % HISTORY);
+        int size = world.getStateSize();
+        if (states[slot] == null || states[slot].length < size) {
+            states[slot] = new byte[size];
+            stateBuffers[slot] = ByteBuffer.wrap(states[slot]);
+        }
+        stateBuffers[slot].clear();
+        world.writeState(stateBuffers[slot]);
+        stateLengths[slot] = size;
+        stateTicks[slot] = tick;
+        crc.reset();
+        crc.update(states[slot], 0, size);
+        checksums[slot] = (int) crc.getValue();
+
+        for (int i = 0; i < connections.size(); i++) {
+            sendState(connections.get(i), slot);
+        }
+    }
+
+    private final void sendState(Connection connection, int slot) throws IOException {
+        long tick = stateTicks[slot];
+        int size = stateLengths[slot];
+        int room = MAX_DATAGRAM - STATE_HEADER;
+
+        long base = connection.ackTick;
+        int baseSlot = (int) (base % HISTORY);
+        int length = -1;
+        if (base >= 0 && base < tick && tick - base < HISTORY && stateTicks[baseSlot] == base) {
+            length = DeltaCodec.encode(states[slot], size, states[baseSlot], stateLengths[baseSlot], packet,
+                    STATE_HEADER, Math.min(size, room));
+        }
+        // The constructor made sure every state fits whole
+        if (length < 0) {
+            base = -1;
+            length = size;
+            System.arraycopy(states[slot], 0, packet, STATE_HEADER, size);
+            connection.wholeStates++;
+        } else {
+            connection.deltaStates++;
+        }
+
+        packetBuffer.clear();
+        packetBuffer.put(STATE);
+        packetBuffer.putLong(tick);
+        packetBuffer.putLong(base);
+        packetBuffer.putInt(connection.applied);
+        packetBuffer.put(connection == player ? (byte) 1 : (byte) 0);
+        packetBuffer.putInt(size);
+        packetBuffer.putInt(checksums[slot]);
+        packetBuffer.limit(STATE_HEADER + length);
+        packetBuffer.position(0);
+        connection.bytesOut += STATE_HEADER + length;
+        connection.windowBytesOut += STATE_HEADER + length;
+        link.send(channel, packetBuffer, connection.address, now);
+    }
+
+    /**
+     * Summarises the traffic of every client since the last report and
+     * starts a new window.
+     *
+     * @param now The current time in nanoseconds.
+     * @return One line per client.
+     */
+
+    private final String report(long now) {
+        double seconds = (now - windowStart) / 1e9;
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT, "tick=%d clients=%d", world.getTickCount(), connections.size()));
+        for (int i = 0; i < connections.size(); i++) {
+            Connection connection = connections.get(i);
+            summary.append(String.format(Locale.ROOT, "%n  %s %s down=%.0fB/s up=%.0fB/s whole=%d delta=%d",
+                    connection.address, connection == player ? "player" : "viewer",
+                    connection.windowBytesOut / seconds, connection.windowBytesIn / seconds,
+                    connection.wholeStates, connection.deltaStates));
+            connection.windowBytesIn = 0;
+            connection.windowBytesOut = 0;
+        }
+        windowStart = now;
+        return summary.toString();
+    }
+
+    /**
+     *
+     * @return The address the server listens on.
+     * @throws IOException if the channel is closed.
+     */
+
+    public final SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    /**
+     * Totals the bytes sent to every client that is still connected. Only
+     * meaningful once run has returned.
+     *
+     * @return The bytes sent, summed over the clients.
+     */
+
+    public final long getBytesSent() {
+        long total = 0;
+        for (int i = 0; i < connections.size(); i++) {
+            total += connections.get(i).bytesOut;
+        }
+        return total;
+    }
+
+    /**
+     * Totals the bytes received from every client that is still connected.
+     * Only meaningful once run has returned.
+     *
+     * @return The bytes received, summed over the clients.
+     */
+
+    public final long getBytesReceived() {
+        long total = 0;
+        for (int i = 0; i < connections.size(); i++) {
+            total += connections.get(i).bytesIn;
+        }
+        return total;
+    }
+
+    /**
+     *
+     * @return The number of connected clients. Only meaningful once run has
+     *         returned.
+     */
+
+    public final int getClientCount() {
+        return connections.size();
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * I implement a singleton pattern to manage the game's state, It includes:
  * A private static instance of GameState to ensure only one instance exists.
@@ -9,28 +11,41 @@
  * game.
  * It acts as a central point for other parts of the game to query and modify
  * game-related data.
+ * The state is safe to share between threads: the instance is created when
+ * the class is initialised, and the score and lives are atomic. The score
+ * display does not read it; it draws the score and lives carried by each
+ * WorldSnapshot, so a frame never mixes two ticks.
  * 
  */
 public final class GameState {
-    private static GameState instance = null;
+    // Created by class initialisation, which the JVM runs exactly once
+    private static final GameState instance = new GameState();
 
     // Game state attributes
-    private int score;
-    private int lives;
+    private final AtomicInteger score;
+    private final AtomicInteger lives;
 
     // Private constructor to prevent instantiation
     private GameState() {
-        score = 0;
-        lives = 3;
+        score = new AtomicInteger(0);
+        lives = new AtomicInteger(3);
     }
 
     public static final GameState getInstance() {
-        if (instance == null) {
-            instance = new GameState();
-        }
         return instance;
     }
 
+    /**
+     * Creates a game state separate from the shared instance, for worlds that
+     * must start from a fresh score, such as replays.
+     *
+     * @return A new game state with no score and full lives.
+     */
+
+    public static final GameState create() {
+        return new GameState();
+    }
+
     /**
      * Increases the player's score by a specified amount.
      * 
@@ -38,7 +53,7 @@ public final class GameState {
      */
 
     public final void increaseScore(int points) {
-        score += points;
+        score.addAndGet(points);
     }
 
     /**
@@ -47,14 +62,26 @@ public final class GameState {
      */
 
     public final void decreaseLives() {
-        lives--;
+        lives.decrementAndGet();
+    }
+
+    /**
+     * Sets the score and lives, for example to those of a restored world.
+     *
+     * @param score The new score.
+     * @param lives The new number of lives.
+     */
+
+    public final void restore(int score, int lives) {
+        this.score.set(score);
+        this.lives.set(lives);
     }
 
     public final int getScore() {
-        return score;
+        return score.get();
     }
 
     public final int getLives() {
-        return lives;
+        return lives.get();
     }
 }
@@ -0,0 +1,64 @@
+import java.time.Instant;
+import java.util.Locale;
+
+/**
+ * One finished game kept by a HighScoreStore: who played it, what they
+ * scored, how far they got and when it ended.
+ */
+
+public final class HighScore {
+    private final String player;
+    private final int score;
+    private final int wave;
+    private final long ticks;
+    private final long timeMillis;
+
+    /**
+     * Constructs a score.
+     *
+     * @param player     The name of the player.
+     * @param score      The final score.
+     * @param wave       The wave the game ended in.
+     * @param ticks      The number of ticks the game lasted.
+     * @param timeMillis When the game ended, in milliseconds since the epoch.
+     */
+
+    public HighScore(String player, int score, int wave, long ticks, long timeMillis) {
+        this.player = player;
+        this.score = score;
+        this.wave = wave;
+        this.ticks = ticks;
+        this.timeMillis = timeMillis;
+    }
+
+    public final String getPlayer() {
+        return player;
+    }
+
+    public final int getScore() {
+        return score;
+    }
+
+    public final int getWave() {
+        return wave;
+    }
+
+    public final long getTicks() {
+        return ticks;
+    }
+
+    /**
+     *
+     * @return When the game ended, in milliseconds since the epoch.
+     */
+
+    public final long getTimeMillis() {
+        return timeMillis;
+    }
+
+    @Override
+    public final String toString() {
+        return String.format(Locale.ROOT, "%-19s %8d  wave %3d  %6.0f s  %s", player, score, wave,
+                ticks * World.TICK_MILLIS / 1000.0, Instant.ofEpochMilli(timeMillis));
+    }
+}
@@ -0,0 +1,457 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the score of every finished game in an append-only log, and answers
+ * which scores are the best, overall and per player, from memory.
+ * The log starts with a magic number and a version, followed by one
+ * RECORD_SIZE record per game: a CRC32 of the rest of the record, the time
+ * the game ended, its length in ticks, the score, the wave and the player's
+ * name as at most NAME_BYTES bytes of UTF-8. All values are big-endian.
+ * Recording a score only offers it to a bounded queue, so it never waits for
+ * the disk; if the queue is full, the score is dropped and counted. A single
+ * writer thread takes every score queued so far, appends them with one write
+ * and forces them to the disk with one fsync, so a burst of games costs one
+ * fsync rather than one each. Scores show up in the rankings once they are
+ * on the disk.
+ * The rankings keep the TOP_SCORES best scores overall and the
+ * PLAYER_SCORES best of each player in sorted arrays; a score below the last
+ * one of a full ranking is turned away with one comparison, so keeping them
+ * costs next to nothing per game however many are recorded. They are not
+ * stored, but rebuilt on opening by reading the log from the start in large
+ * blocks. Records that fail their checksum are skipped, and a broken record
+ * at the end, as left by a crash in the middle of a write, is cut off so
+ * new records follow the last good one.
+ */
+
+public final class HighScoreStore implements Closeable {
+    public static final int MAGIC = 0x53494853;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+
+    // Checksum, time, ticks, score, wave, name length and name
+    public static final int RECORD_SIZE = 48;
+    public static final int NAME_BYTES = 19;
+
+    // Lengths of the rankings
+    public static final int TOP_SCORES = 100;
+    public static final int PLAYER_SCORES = 10;
+
+    // Scores waiting for the writer, and records read at once when rebuilding
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int READ_RECORDS = 16384;
+
+    // Tells the writer to finish
+    private static final HighScore END = new HighScore("", 0, 0, 0, 0);
+
+    /**
+     * Scores sorted from best to worst, holding at most a fixed number.
+     * Equal scores keep the order they were recorded in.
+     */
+    private static final class Ranking {
+        private final HighScore[] scores;
+        private int size;
+
+        private Ranking(int capacity) {
+            this.scores = new HighScore[capacity];
+        }
+
+        private final void offer(HighScore score) {
+            if (size == scores.length && score.getScore() <= scores[size - 1].getScore()) {
+                return;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (scores[middle].getScore() >= score.getScore()) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            int moved = Math.min(size, scores.length - 1) - low;
+            System.arraycopy(scores, low, scores, low + 1, moved);
+            scores[low] = score;
+            size = Math.min(size + 1, scores.length);
+        }
+
+        private final List<HighScore> top(int count) {
+            return new ArrayList<>(Arrays.asList(scores).subList(0, Math.min(count, size)));
+        }
+    }
+
+    /**
+     * What is known about one player.
+     */
+    private static final class PlayerScores {
+        private final Ranking best = new Ranking(PLAYER_SCORES);
+        private long games;
+    }
+
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<HighScore> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Guarded by the store; changed by the writer thread once open
+    private final Ranking top = new Ranking(TOP_SCORES);
+    private final Map<String, PlayerScores> players = new HashMap<>();
+    private long games;
+
+    // Counted by every thread that records a score
+    private final AtomicLong droppedScores = new AtomicLong();
+    private volatile boolean failed;
+    private long skippedRecords;
+    private long truncatedBytes;
+
+    /**
+     * Opens a log, creating it if it does not exist, rebuilds the rankings
+     * from it and starts the writer thread.
+     *
+     * @param path The log file.
+     * @throws IOException If the file cannot be read or written, or is not a
+     *                     score log.
+     */
+
+    public HighScoreStore(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            rebuild();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.writer = new Thread(this::write, "scores");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Reads every record, then cuts off whatever follows the last good one
+    private final void rebuild() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.size() < HEADER_SIZE) {
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+            channel.position(HEADER_SIZE);
+            return;
+        }
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a score log of version " + VERSION);
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(READ_RECORDS * RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        long position = HEADER_SIZE;
+        long end = HEADER_SIZE;
+        long size = channel.size();
+        while (position + RECORD_SIZE <= size) {
+            block.clear();
+            while (block.hasRemaining() && channel.read(block, position + block.position()) > 0) {
+                // Read until the block is full or the file ends
+            }
+            block.flip();
+            while (block.remaining() >= RECORD_SIZE) {
+                HighScore score = decode(block, crc);
+                position += RECORD_SIZE;
+                if (score == null) {
+                    skippedRecords++;
+                } else {
+                    index(score);
+                    end = position;
+                }
+            }
+        }
+
+        // Broken records at the end are not counted as skipped, but cut off
+        skippedRecords -= (position - end) / RECORD_SIZE;
+        truncatedBytes = size - end;
+        if (truncatedBytes > 0) {
+            channel.truncate(end);
+            channel.force(true);
+        }
+        channel.position(end);
+    }
+
+    private static final HighScore decode(ByteBuffer block, CRC32 crc) {
+        int start = block.position();
+        int checksum = block.getInt();
+        crc.reset();
+        crc.update(block.array(), start + 4, RECORD_SIZE - 4);
+        if ((int) crc.getValue() != checksum) {
+            block.position(start + RECORD_SIZE);
+            return null;
+        }
+        long time = block.getLong();
+        long ticks = block.getLong();
+        int score = block.getInt();
+        int wave = block.getInt();
+        int nameLength = Math.min(block.get() & 0xFF, NAME_BYTES);
+        String player = new String(block.array(), block.position(), nameLength, StandardCharsets.UTF_8);
+        block.position(start + RECORD_SIZE);
+        return new HighScore(player, score, wave, ticks, time);
+    }
+
+    private static final void encode(HighScore score, ByteBuffer buffer, CRC32 crc) {
+        int start = buffer.position();
+        byte[] name = score.getPlayer().getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(0);
+        buffer.putLong(score.getTimeMillis());
+        buffer.putLong(score.getTicks());
+        buffer.putInt(score.getScore());
+        buffer.putInt(score.getWave());
+        buffer.put((byte) name.length);
+        buffer.put(name);
+        for (int i = name.length; i < NAME_BYTES; i++) {
+            buffer.put((byte) 0);
+        }
+        crc.reset();
+        crc.update(buffer.array(), start + 4, RECORD_SIZE - 4);
+        buffer.putInt(start, (int) crc.getValue());
+    }
+
+    private final void index(HighScore score) {
+        games++;
+        top.offer(score);
+        PlayerScores player = players.get(score.getPlayer());
+        if (player == null) {
+            player = new PlayerScores();
+            players.put(score.getPlayer(), player);
+        }
+        player.games++;
+        player.best.offer(score);
+    }
+
+    /**
+     * Records the score of a finished game without waiting for it to be
+     * written.
+     *
+     * @param player The name of the player; cut to NAME_BYTES bytes of UTF-8.
+     * @param score  The final score.
+     * @param wave   The wave the game ended in.
+     * @param ticks  The number of ticks the game lasted.
+     * @return false if the score was dropped because the store is closed,
+     *         has failed, or has too many scores waiting.
+     */
+
+    public final boolean record(String player, int score, int wave, long ticks) {
+        if (closed || failed) {
+            return false;
+        }
+        HighScore entry = new HighScore(fitName(player), score, wave, ticks, System.currentTimeMillis());
+        if (!queue.offer(entry)) {
+            droppedScores.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // Cuts a name at a character boundary so it fits a record
+    private static final String fitName(String player) {
+        String name = player;
+        while (name.getBytes(StandardCharsets.UTF_8).length > NAME_BYTES) {
+            name = name.substring(0, name.offsetByCodePoints(name.length(), -1));
+        }
+        return name;
+    }
+
+    // A failed write ends the recording but not the game
+    private final void write() {
+        List<HighScore> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(QUEUE_CAPACITY * RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        boolean ending = false;
+        while (!ending) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // Nothing interrupts the writer; it ends when close queues END
+                continue;
+            }
+            queue.drainTo(batch, QUEUE_CAPACITY - 1);
+            buffer.clear();
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i) == END) {
+                    ending = true;
+                    batch.remove(i--);
+                } else {
+                    encode(batch.get(i), buffer, crc);
+                }
+            }
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (!batch.isEmpty()) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                System.err.println("Stopped recording scores: " + e.getMessage());
+                failed = true;
+                return;
+            }
+            synchronized (this) {
+                for (HighScore score : batch) {
+                    index(score);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes every score recorded so far, waits for them to reach the disk
+     * and closes the log. Calling this again has no effect.
+     *
+     * @throws IOException If the log cannot be closed.
+     */
+
+    @Override
+    public final void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // A writer that has failed no longer empties the queue
+            while (writer.isAlive() && !queue.offer(END, 10, TimeUnit.MILLISECONDS)) {
+                // Wait for room behind the scores still to be written
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * Returns the best scores of every game recorded.
+     *
+     * @param count The number of scores, at most TOP_SCORES.
+     * @return The best scores, best first.
+     */
+
+    public final synchronized List<HighScore> getTop(int count) {
+        return top.top(count);
+    }
+
+    /**
+     * Returns the best scores of one player.
+     *
+     * @param player The name of the player.
+     * @param count  The number of scores, at most PLAYER_SCORES.
+     * @return The best scores, best first; empty if the player has no
+     *         recorded games.
+     */
+
+    public final synchronized List<HighScore> getTop(String player, int count) {
+        PlayerScores scores = players.get(fitName(player));
+        return scores == null ? new ArrayList<>() : scores.best.top(count);
+    }
+
+    /**
+     * Describes the best scores overall and those of one player.
+     *
+     * @param player The name of the player.
+     * @param count  The number of scores of each kind.
+     * @return One line per score, each ranking under a heading.
+     */
+
+    public final synchronized String report(String player, int count) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "High scores of %d games:%n", games));
+        List<HighScore> best = getTop(count);
+        for (int i = 0; i < best.size(); i++) {
+            report.append(String.format(Locale.ROOT, "%3d. %s%n", i + 1, best.get(i)));
+        }
+        report.append(String.format(Locale.ROOT, "Best of %s in %d games:%n", fitName(player), getGames(player)));
+        best = getTop(player, count);
+        for (int i = 0; i < best.size(); i++) {
+            report.append(String.format(Locale.ROOT, "%3d. %s%n", i + 1, best.get(i)));
+        }
+        return report.toString();
+    }
+
+    /**
+     *
+     * @param player The name of the player.
+     * @return The number of games the player has recorded.
+     */
+
+    public final synchronized long getGames(String player) {
+        PlayerScores scores = players.get(fitName(player));
+        return scores == null ? 0 : scores.games;
+    }
+
+    /**
+     *
+     * @return The number of games recorded.
+     */
+
+    public final synchronized long getGames() {
+        return games;
+    }
+
+    public final synchronized int getPlayerCount() {
+        return players.size();
+    }
+
+    /**
+     *
+     * @return true if a write failed; the store then drops every score.
+     */
+
+    public final boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     *
+     * @return The number of scores dropped because too many were waiting.
+     */
+
+    public final long getDroppedScores() {
+        return droppedScores.get();
+    }
+
+    /**
+     *
+     * @return The number of records that failed their checksum when the log
+     *         was opened, not counting those cut off its end.
+     */
+
+    public final long getSkippedRecords() {
+        return skippedRecords;
+    }
+
+    /**
+     *
+     * @return The number of bytes cut off the end of the log when it was
+     *         opened.
+     */
+
+    public final long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+}
@@ -0,0 +1,89 @@
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * The score display, kept as a cached image.
+ * The layer shows the score, lives and wave of the snapshot being drawn, not
+ * those of the live GameState, so a frame never shows a score from a later
+ * tick than the entities around it. The text is only laid out again when a
+ * snapshot brings different values; every other frame it is a single image
+ * copy. The layer is used by the rendering thread only.
+ */
+
+public final class HudLayer {
+    private final BufferedImage image;
+
+    // The values the image shows; -1 until the first snapshot
+    private int score = -1;
+    private int lives = -1;
+    private int wave = -1;
+
+    // Incremented on every change, so callers can tell the layer was redrawn
+    private int version;
+
+    /**
+     * Constructs an empty layer.
+     */
+
+    public HudLayer() {
+        this.image = GameRenderer.createSprite(GameRenderer.HUD_WIDTH, GameRenderer.HUD_HEIGHT,
+                Transparency.BITMASK);
+    }
+
+    /**
+     * Lays the display out again if a snapshot shows a different score,
+     * number of lives or wave than the last one.
+     *
+     * @param world The snapshot about to be drawn.
+     */
+
+    public final void update(WorldSnapshot world) {
+        if (world.getScore() == score && world.getLives() == lives && world.getWave() == wave) {
+            return;
+        }
+        score = world.getScore();
+        lives = world.getLives();
+        wave = world.getWave();
+        version++;
+        rebuild();
+    }
+
+    /**
+     * Draws the score display in the top left corner, as of the last update.
+     *
+     * @param g2d The Graphics2D object used for drawing.
+     */
+
+    public final void render(Graphics2D g2d) {
+        g2d.drawImage(image, 0, 0, null);
+    }
+
+    /**
+     *
+     * @return A counter that changes every time the displayed values change.
+     */
+
+    public final int getVersion() {
+        return version;
+    }
+
+    private final void rebuild() {
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setComposite(AlphaComposite.Clear);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.setComposite(AlphaComposite.SrcOver);
+
+            // Display the score
+            g2d.setColor(Color.WHITE);
+            g2d.drawString("Score: " + score, 10, 20);
+            g2d.drawString("Lives: " + lives, 10, 40);
+            g2d.drawString("Wave: " + (wave + 1), 110, 20);
+        } finally {
+            g2d.dispose();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of input commands from exactly one producer thread to
+ * exactly one consumer thread.
+ * The commands are ints in a power-of-two array indexed by two ever-growing
+ * counters. Each counter is written by only one side, so offering and polling
+ * need no locks or compare-and-set, only an ordered store that makes the
+ * command visible before the counter that publishes it. Neither side
+ * allocates.
+ */
+
+public final class InputRing {
+    private final int[] commands;
+    private final int mask;
+
+    // Next slot to read, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+
+    // Next slot to write, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Constructs an empty ring.
+     *
+     * @param capacity The most commands that can wait at once; rounded up to
+     *                 a power of two.
+     */
+
+    public InputRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.commands = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds a command. Producer thread only.
+     *
+     * @param command The command to add.
+     * @return false if the ring is full and the command was dropped.
+     */
+
+    public final boolean offer(int command) {
+        long t = tail.get();
+        if (t - head.get() == commands.length) {
+            return false;
+        }
+        commands[(int) t & mask] = command;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Takes the oldest command. Consumer thread only.
+     *
+     * @return The command, or -1 if the ring is empty.
+     */
+
+    public final int poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return -1;
+        }
+        int command = commands[(int) h & mask];
+        head.lazySet(h + 1);
+        return command;
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/**
+ * Counts durations in logarithmic buckets, so percentiles can be read at any
+ * time without keeping every sample.
+ * Durations below 16 ns get a bucket each; above that, every power of two is
+ * split into eight buckets, so a percentile is accurate to within 12.5%.
+ * Recording is a few shifts and one array increment, and never allocates.
+ * Only one thread may record. Other threads may read the histogram while it
+ * is recorded to, in which case they see counts that are slightly stale.
+ */
+
+public final class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[LINEAR_BUCKETS + (64 - 4) * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration in nanoseconds; negative values count as 0.
+     */
+
+    public final void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[index(value)]++;
+        count++;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Removes every recorded duration.
+     */
+
+    public final void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * Returns a percentile of the recorded durations.
+     *
+     * @param fraction The percentile as a fraction, for example 0.99.
+     * @return The upper bound of the bucket holding the percentile, at most
+     *         the largest duration recorded, or 0 if nothing was recorded.
+     */
+
+    public final long getPercentile(double fraction) {
+        long total = count;
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public final long getCount() {
+        return count;
+    }
+
+    public final long getMax() {
+        return max;
+    }
+
+    private static final int index(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    private static final long upperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
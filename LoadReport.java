@@ -0,0 +1,121 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Summarises the load of a running game for stress runs: the tick rate the
+ * simulation achieves, tick time percentiles from its TickProfiler, the
+ * number of aliens and bullets, heap usage, and the garbage collector pauses
+ * since the last report.
+ * Pauses are taken from the notification every collector sends after a
+ * collection, so each pause is seen on its own rather than as an average.
+ * Collections that run concurrently with the game do not stop it and are
+ * left out.
+ * The profiler must be enabled for tick times to be collected.
+ */
+
+public final class LoadReport {
+    private final TickProfiler profiler;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    // Pauses since the last report, written by the JMX notification thread
+    private int pauseCount;
+    private long pauseMillis;
+    private long maxPauseMillis;
+
+    private long windowStart;
+    private long windowStartTick;
+
+    /**
+     * Constructs a report and starts listening to the collectors.
+     *
+     * @param profiler The profiler timing the simulation.
+     */
+
+    public LoadReport(TickProfiler profiler) {
+        this.profiler = profiler;
+        this.windowStart = System.nanoTime();
+        NotificationListener listener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                String type = notification.getType();
+                if (!type.equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                        .from((CompositeData) notification.getUserData());
+                if (!isConcurrent(info)) {
+                    recordPause(info.getGcInfo().getDuration());
+                }
+            }
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+
+    // Concurrent cycles are reported under names such as "G1 Concurrent GC"
+    // and "ZGC Cycles", or with an action naming them
+    private static final boolean isConcurrent(GarbageCollectionNotificationInfo info) {
+        String name = info.getGcName().toLowerCase(Locale.ROOT);
+        String action = info.getGcAction().toLowerCase(Locale.ROOT);
+        return name.contains("concurrent") || name.contains("cycles") || action.contains("concurrent");
+    }
+
+    private final synchronized void recordPause(long millis) {
+        pauseCount++;
+        pauseMillis += millis;
+        maxPauseMillis = Math.max(maxPauseMillis, millis);
+    }
+
+    /**
+     * Summarises the load since the last report and starts a new window. Must
+     * be called on the thread that records the profiler's RENDER phase.
+     *
+     * @param snapshot The newest snapshot of the world.
+     * @param now      The current time in nanoseconds.
+     * @return A one line summary of the load.
+     */
+
+    public final String report(WorldSnapshot snapshot, long now) {
+        double seconds = (now - windowStart) / 1e9;
+        long ticks = snapshot.getTickCount() - windowStartTick;
+        LatencyHistogram tickTimes = profiler.getHistogram(TickProfiler.TICK);
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+
+        int count;
+        long total;
+        long max;
+        synchronized (this) {
+            count = pauseCount;
+            total = pauseMillis;
+            max = maxPauseMillis;
+            pauseCount = 0;
+            pauseMillis = 0;
+            maxPauseMillis = 0;
+        }
+
+        String summary = String.format(Locale.ROOT,
+                "tps=%.1f tick p50=%.2fms p99=%.2fms max=%.2fms aliens=%d bullets=%d heap=%dMB/%dMB"
+                        + " gc pauses=%d total=%dms max=%dms",
+                ticks / seconds, tickTimes.getPercentile(0.5) / 1e6, tickTimes.getPercentile(0.99) / 1e6,
+                tickTimes.getMax() / 1e6, snapshot.getAlienCount(),
+                snapshot.getPlayerBullets().size() + snapshot.getAlienBullets().size(), heap.getUsed() >> 20,
+                heap.getCommitted() >> 20, count, total, max);
+        profiler.reset();
+        windowStart = now;
+        windowStartTick = snapshot.getTickCount();
+        return summary;
+    }
+}
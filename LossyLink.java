@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+
+/**
+ * Sends datagrams through a simulated network, so the game can be tried
+ * over 127.0.0.1 as if over a real link.
+ * Every datagram is dropped with a fixed probability, and the rest are held
+ * back for the latency plus a random jitter before they are sent. Held
+ * datagrams are copied into a fixed ring of buffers and released in the
+ * order they were sent, as if they shared one queue; a datagram whose jitter
+ * would let it overtake an earlier one waits for it. When the ring is full,
+ * further datagrams are dropped, as a congested link would.
+ * A link without loss or latency sends straight away. Each side of a
+ * connection applies its own link to what it sends, so a round trip takes
+ * twice the latency.
+ */
+
+public final class LossyLink {
+    // Most datagrams held back at once
+    private static final int CAPACITY = 1024;
+
+    private final double loss;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final Random random;
+
+    private final byte[][] packets = new byte[CAPACITY][];
+    private final int[] lengths = new int[CAPACITY];
+    private final SocketAddress[] targets = new SocketAddress[CAPACITY];
+    private final long[] dueTimes = new long[CAPACITY];
+    private int head;
+    private int count;
+
+    private long sentPackets;
+    private long droppedPackets;
+
+    /**
+     * Constructs a link.
+     *
+     * @param loss          The probability, from 0 to 1, that a datagram is
+     *                      lost.
+     * @param latencyMillis The time every datagram is held back.
+     * @param jitterMillis  The most time a datagram is held back on top of
+     *                      the latency.
+     * @param seed          The seed of the losses and the jitter.
+     */
+
+    public LossyLink(double loss, int latencyMillis, int jitterMillis, long seed) {
+        if (loss < 0 || loss > 1 || latencyMillis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("Link loss must be from 0 to 1 and delays must not be negative");
+        }
+        this.loss = loss;
+        this.latencyNanos = latencyMillis * 1_000_000L;
+        this.jitterNanos = jitterMillis * 1_000_000L;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sends a datagram, or holds it back until a later flush. The packet is
+     * consumed either way.
+     *
+     * @param channel The channel to send on.
+     * @param packet  The datagram, from its position to its limit.
+     * @param target  The address to send to.
+     * @param now     The current time in nanoseconds.
+     * @throws IOException if the channel fails.
+     */
+
+    public final void send(DatagramChannel channel, ByteBuffer packet, SocketAddress target, long now)
+            throws IOException {
+        sentPackets++;
+        if (loss > 0 && random.nextDouble() < loss) {
+            droppedPackets++;
+            packet.position(packet.limit());
+            return;
+        }
+        if (latencyNanos == 0 && jitterNanos == 0) {
+            channel.send(packet, target);
+            return;
+        }
+        if (count == CAPACITY) {
+            droppedPackets++;
+            packet.position(packet.limit());
+            return;
+        }
+
+        int slot = (head + count) % CAPACITY;
+        int length = packet.remaining();
+        if (packets[slot] == null || packets[slot].length < length) {
+            packets[slot] = new byte[length];
+        }
+        packet.get(packets[slot], 0, length);
+        lengths[slot] = length;
+        targets[slot] = target;
+        long due = now + latencyNanos + (jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0);
+        if (count > 0) {
+            due = Math.max(due, dueTimes[(slot + CAPACITY - 1) % CAPACITY]);
+        }
+        dueTimes[slot] = due;
+        count++;
+    }
+
+    /**
+     * Sends every held datagram that is due.
+     *
+     * @param channel The channel to send on.
+     * @param now     The current time in nanoseconds.
+     * @throws IOException if the channel fails.
+     */
+
+    public final void flush(DatagramChannel channel, long now) throws IOException {
+        while (count > 0 && dueTimes[head] <= now) {
+            channel.send(ByteBuffer.wrap(packets[head], 0, lengths[head]), targets[head]);
+            targets[head] = null;
+            head = (head + 1) % CAPACITY;
+            count--;
+        }
+    }
+
+    /**
+     *
+     * @param now The current time in nanoseconds.
+     * @return The time until the next held datagram is due, or Long.MAX_VALUE
+     *         if none is held.
+     */
+
+    public final long getNanosUntilNextRelease(long now) {
+        return count == 0 ? Long.MAX_VALUE : Math.max(0, dueTimes[head] - now);
+    }
+
+    /**
+     *
+     * @return The number of datagrams sent through the link, including the
+     *         dropped ones.
+     */
+
+    public final long getSentPackets() {
+        return sentPackets;
+    }
+
+    public final long getDroppedPackets() {
+        return droppedPackets;
+    }
+}
@@ -1,13 +1,219 @@
 
 import javax.swing.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public final class Main {
+    // How long a client waits for the server, and how often a server
+    // reports its traffic
+    private static final long CONNECT_TIMEOUT_NANOS = 5_000_000_000L;
+    private static final long REPORT_INTERVAL_NANOS = 5_000_000_000L;
+
+    // Scores of each ranking printed when a game is over
+    private static final int SCORES_SHOWN = 10;
+
     public static final void main(String[] args) {
+        // Active rendering is opt-in; Swing repainting stays the default
+        boolean activeRendering = false;
+        Path recordPath = null;
+        Path replayPath = null;
+        long seed = System.nanoTime();
+
+        // Stress runs start from GameConfig.STRESS; the other flags override
+        // single settings, and 0 or less leaves a setting as it is
+        boolean stress = false;
+        int rows = 0;
+        int columns = 0;
+        int fireDelay = 0;
+        int fireJitter = 0;
+        int obstacles = -1;
+        int bulletCapacity = 0;
+
+        // Network play: host a match, or join one, through a simulated link
+        int serverPort = -1;
+        String connectAddress = null;
+        int latency = 0;
+        int jitter = 0;
+        double loss = 0;
+
+        // Scores of games with the default balance are kept under a name
+        String player = System.getProperty("user.name", "player");
+        Path scoresPath = Paths.get("scores.log");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--active")) {
+                activeRendering = true;
+            } else if (args[i].equals("--record") && i + 1 < args.length) {
+                recordPath = Paths.get(args[++i]);
+            } else if (args[i].equals("--replay") && i + 1 < args.length) {
+                replayPath = Paths.get(args[++i]);
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--stress")) {
+                stress = true;
+            } else if (args[i].equals("--rows") && i + 1 < args.length) {
+                rows = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--columns") && i + 1 < args.length) {
+                columns = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--fire-delay") && i + 1 < args.length) {
+                fireDelay = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--fire-jitter") && i + 1 < args.length) {
+                fireJitter = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--obstacles") && i + 1 < args.length) {
+                obstacles = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--bullets") && i + 1 < args.length) {
+                bulletCapacity = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--server") && i + 1 < args.length) {
+                serverPort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--connect") && i + 1 < args.length) {
+                connectAddress = args[++i];
+            } else if (args[i].equals("--latency") && i + 1 < args.length) {
+                latency = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--jitter") && i + 1 < args.length) {
+                jitter = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--loss") && i + 1 < args.length) {
+                loss = Double.parseDouble(args[++i]) / 100;
+            } else if (args[i].equals("--name") && i + 1 < args.length) {
+                player = args[++i];
+            } else if (args[i].equals("--scores") && i + 1 < args.length) {
+                scoresPath = Paths.get(args[++i]);
+            }
+        }
+
+        // Replays are played headless and never open a window
+        if (replayPath != null) {
+            try {
+                ReplayPlayer.Result result = ReplayPlayer.play(replayPath);
+                System.out.println(result);
+                System.exit(result.matches() ? 0 : 1);
+            } catch (IOException e) {
+                System.err.println("Could not play the replay: " + e.getMessage());
+                System.exit(2);
+            }
+        }
+
+        LossyLink link = new LossyLink(loss, latency, jitter, seed);
+
+        // A client takes the balance from the server it joins
+        if (connectAddress != null) {
+            int colon = connectAddress.lastIndexOf(':');
+            InetSocketAddress address = new InetSocketAddress(connectAddress.substring(0, colon),
+                    Integer.parseInt(connectAddress.substring(colon + 1)));
+            try {
+                GameClient client = GameClient.connect(address, link, GameState.getInstance(), CONNECT_TIMEOUT_NANOS);
+                final boolean active = activeRendering;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        new GameFrame(active, client).setVisible(true);
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Could not join the match: " + e.getMessage());
+                System.exit(2);
+            }
+            return;
+        }
+
+        GameConfig config = stress ? GameConfig.STRESS : GameConfig.DEFAULT;
+        config = config.withFormation(rows > 0 ? rows : config.getFormationRows(),
+                columns > 0 ? columns : config.getFormationColumns());
+        config = config.withAlienFire(fireDelay > 0 ? fireDelay : config.getAlienFireDelayTicks(),
+                fireJitter > 0 ? fireJitter : config.getAlienFireJitterTicks());
+        if (obstacles >= 0) {
+            config = config.withObstacles(obstacles);
+        }
+        if (bulletCapacity > 0) {
+            config = config.withAlienBulletCapacity(bulletCapacity);
+        }
+
+        // A replay records the formation size but not the rest of the balance
+        boolean balanceChanged = stress || fireDelay > 0 || fireJitter > 0 || obstacles >= 0 || bulletCapacity > 0;
+        if (recordPath != null && balanceChanged) {
+            System.err.println("Replays can only be recorded with the default balance");
+            System.exit(2);
+        }
+
+        final World world = new World(GameState.getInstance(), config, seed);
+
+        // Scores are only comparable with the same balance and formation
+        HighScoreStore highScores = null;
+        if (!balanceChanged && rows <= 0 && columns <= 0) {
+            try {
+                highScores = new HighScoreStore(scoresPath);
+            } catch (IOException e) {
+                System.err.println("Could not open the high scores, the score will not be kept: " + e.getMessage());
+            }
+        }
+
+        // Servers run headless until the match is over
+        if (serverPort >= 0) {
+            if (recordPath != null) {
+                System.err.println("Replays cannot be recorded by a server");
+                System.exit(2);
+            }
+            try {
+                GameServer server = new GameServer(world, new InetSocketAddress(serverPort), link,
+                        GameFrame.TICKS_PER_SECOND);
+                System.out.println("Serving on " + server.getLocalAddress());
+                server.setReportInterval(REPORT_INTERVAL_NANOS);
+                server.run();
+                System.out.println(world.getGameState().getScore());
+                if (highScores != null) {
+                    highScores.record(player, world.getGameState().getScore(), world.getWave(),
+                            world.getTickCount());
+                    closeScores(highScores, player);
+                }
+                System.out.println("Game Over!");
+                System.exit(0);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not serve the match: " + e.getMessage());
+                System.exit(2);
+            }
+        }
+
+        ReplayRecorder replayRecorder = null;
+        if (recordPath != null) {
+            try {
+                replayRecorder = new ReplayRecorder(recordPath, world);
+            } catch (IOException e) {
+                System.err.println("Could not record the replay: " + e.getMessage());
+                System.exit(2);
+            }
+        }
+
+        final boolean active = activeRendering;
+        final boolean stressRun = stress;
+        final ReplayRecorder recorder = replayRecorder;
+        final HighScoreStore scores = highScores;
+        final String name = player;
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new GameFrame().setVisible(true);
+                GameFrame frame = new GameFrame(active, world, recorder, stressRun);
+                if (scores != null) {
+                    frame.keepScores(scores, name);
+                }
+                frame.setVisible(true);
             }
         });
     }
+
+    /**
+     * Waits for the recorded scores to be written, closes the store and
+     * prints the best scores.
+     *
+     * @param store  The store.
+     * @param player The player whose best scores are printed too.
+     */
+
+    static final void closeScores(HighScoreStore store, String player) {
+        try {
+            store.close();
+            System.out.print(store.report(player, SCORES_SHOWN));
+        } catch (IOException e) {
+            System.err.println("Could not save the high scores: " + e.getMessage());
+        }
+    }
 }
@@ -1,7 +1,17 @@
 
 import java.awt.*;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
+/**
+ * Represents a destructible shield in the Space Invaders game.
+ * The shield is divided into small square cells, and each row of cells is
+ * packed into the bits of one long. Bullets and aliens are tested against the
+ * shield with a few word-level AND operations, and erode the cells where they
+ * land, so the cost of a test does not depend on how much of the shield is
+ * left.
+ */
+
 public final class Obstacle {
     private int x;
     private final int y = 400;
@@ -9,7 +19,26 @@ public final class Obstacle {
     public static final int HEIGHT = 50;
     public static final int OBSTACLE_SIZE = 50;
 
-    private int hitCount;
+    // Shield cells, one bit per cell and one long per row of cells
+    public static final int CELL_SIZE = 5;
+    private static final int CELL_COLUMNS = WIDTH / CELL_SIZE;
+    public static final int CELL_ROWS = HEIGHT / CELL_SIZE;
+    private static final long FULL_ROW = (1L << CELL_COLUMNS) - 1;
+
+    // Cells cleared on either side of a bullet impact, and rows deep, unless
+    // a GameConfig says otherwise
+    public static final int BLAST_RADIUS = 1;
+    public static final int BLAST_DEPTH = 2;
+
+    // Bytes written by writeState: position, version and cells
+    public static final int STATE_SIZE = 8 + CELL_ROWS * 8;
+
+    private final long[] cells;
+    private int liveCells;
+
+    // Incremented whenever cells are destroyed, so cached images can tell
+    // when they are stale
+    private int version;
 
     /**
      * Constructor for creating an Obstacle.
@@ -17,10 +46,64 @@ public final class Obstacle {
      */
 
     public Obstacle() {
+        this(new Random());
+    }
+
+    /**
+     * Constructor for creating an Obstacle whose position is drawn from a
+     * given source of randomness, so that it can be reproduced.
+     *
+     * @param random The source of the obstacle's position.
+     */
+
+    public Obstacle(Random random) {
         // Randomly set x position for the obstacle
-        Random random = new Random();
-        this.x = random.nextInt(750);
-        this.hitCount = 0;
+        this(random.nextInt(750));
+    }
+
+    /**
+     * Constructor for creating an intact Obstacle at a given position.
+     *
+     * @param x The x-coordinate of the obstacle.
+     */
+
+    public Obstacle(int x) {
+        this.x = x;
+        this.cells = new long[CELL_ROWS];
+        for (int row = 0; row < CELL_ROWS; row++) {
+            cells[row] = FULL_ROW;
+        }
+        this.liveCells = CELL_ROWS * CELL_COLUMNS;
+    }
+
+    /**
+     * Writes the position and the cells of the obstacle.
+     *
+     * @param buffer The buffer to write to.
+     */
+
+    public final void writeState(ByteBuffer buffer) {
+        buffer.putInt(x);
+        buffer.putInt(version);
+        for (int row = 0; row < CELL_ROWS; row++) {
+            buffer.putLong(cells[row]);
+        }
+    }
+
+    /**
+     * Restores the position and the cells written by writeState.
+     *
+     * @param buffer The buffer to read from.
+     */
+
+    public final void readState(ByteBuffer buffer) {
+        x = buffer.getInt();
+        version = buffer.getInt();
+        liveCells = 0;
+        for (int row = 0; row < CELL_ROWS; row++) {
+            cells[row] = buffer.getLong() & FULL_ROW;
+            liveCells += Long.bitCount(cells[row]);
+        }
     }
 
     public final int getX() {
@@ -32,56 +115,277 @@ public final class Obstacle {
     }
 
     /**
-     * Renders the obstacle on the game panel.
-     * 
+     * Renders the obstacle on the game panel, one run of live cells at a time.
+     *
      * @param g2d The Graphics2D object used for drawing.
      */
 
     public final void render(Graphics2D g2d) {
+        render(g2d, x, y, cells, 0);
+    }
+
+    /**
+     * Renders a shield from a copy of its cells, such as one taken by
+     * {@link #copyCells(long[], int)}.
+     *
+     * @param g2d    The Graphics2D object used for drawing.
+     * @param x      The x-coordinate of the shield.
+     * @param y      The y-coordinate of the shield.
+     * @param cells  Holds CELL_ROWS rows of cells.
+     * @param offset The index of the first row in the array.
+     */
+
+    public static final void render(Graphics2D g2d, int x, int y, long[] cells, int offset) {
         // Render obstacle
         g2d.setColor(Color.GRAY);
-        g2d.fillRect(x, y, WIDTH, HEIGHT);
+        for (int row = 0; row < CELL_ROWS; row++) {
+            long bits = cells[offset + row];
+            while (bits != 0) {
+                int start = Long.numberOfTrailingZeros(bits);
+                int length = Long.numberOfTrailingZeros(~(bits >>> start));
+                g2d.fillRect(x + start * CELL_SIZE, y + row * CELL_SIZE, length * CELL_SIZE, CELL_SIZE);
+                bits &= ~(((1L << length) - 1) << start);
+            }
+        }
     }
 
     /**
      * Checks if this obstacle intersects with a bullet.
      * This method is used for collision detection between the obstacle and a
-     * bullet.
+     * bullet. Only cells that have not been destroyed count.
      *
      * @param bullet The bullet to check for intersection.
      * @return true if this obstacle intersects with the bullet, false otherwise.
      */
 
     public final boolean intersects(Bullet bullet) {
-        // Check if the bullet intersects with the obstacle
-        return bullet.getX() < x + WIDTH && bullet.getX() + Bullet.BULLET_SIZE > x &&
-                bullet.getY() < y + HEIGHT && bullet.getY() + Bullet.BULLET_SIZE > y;
+        return overlapsCells(bullet.getX(), bullet.getY(), Bullet.BULLET_SIZE, Bullet.BULLET_SIZE);
     }
 
     /**
      * Checks if this obstacle intersects with an alien.
      * This method is used for collision detection between the obstacle and an
-     * alien.
+     * alien. Only cells that have not been destroyed count.
      *
      * @param alien The alien to check for intersection.
      * @return true if this obstacle intersects with the alien, false otherwise.
      */
 
     public final boolean intersects(Alien alien) {
-        return new Rectangle(x, y, OBSTACLE_SIZE, OBSTACLE_SIZE).intersects(
-                new Rectangle(alien.getX(), alien.getY(), Alien.ALIEN_SIZE, Alien.ALIEN_SIZE));
+        return overlapsCells(alien.getX(), alien.getY(), Alien.ALIEN_SIZE, Alien.ALIEN_SIZE);
+    }
+
+    /**
+     * Checks whether any live cell lies under a box.
+     *
+     * @param boxX      The x-coordinate of the box.
+     * @param boxY      The y-coordinate of the box.
+     * @param boxWidth  The width of the box.
+     * @param boxHeight The height of the box.
+     * @return true if at least one live cell overlaps the box.
+     */
+
+    public final boolean overlapsCells(int boxX, int boxY, int boxWidth, int boxHeight) {
+        if (boxX >= x + WIDTH || boxX + boxWidth <= x || boxY >= y + HEIGHT || boxY + boxHeight <= y) {
+            return false;
+        }
+        long mask = columnMask(boxX, boxWidth);
+        int lastRow = lastRow(boxY, boxHeight);
+        for (int row = firstRow(boxY); row <= lastRow; row++) {
+            if ((cells[row] & mask) != 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Handles the impact of a bullet hitting the obstacle.
-     * Increases the hit count and removes the obstacle if the hit count exceeds a
-     * threshold.
+     * Clears a small blast of cells around the first live row the bullet
+     * reaches along its direction of travel.
+     *
+     * @param bullet The bullet that hit the obstacle.
+     */
+
+    public final void hit(Bullet bullet) {
+        hit(bullet, BLAST_RADIUS, BLAST_DEPTH);
+    }
+
+    /**
+     * Handles the impact of a bullet hitting the obstacle with a blast of a
+     * given size.
+     *
+     * @param bullet      The bullet that hit the obstacle.
+     * @param blastRadius The cells cleared on either side of the impact.
+     * @param blastDepth  The rows of cells cleared.
+     */
+
+    public final void hit(Bullet bullet, int blastRadius, int blastDepth) {
+        long mask = columnMask(bullet.getX(), Bullet.BULLET_SIZE);
+        int firstRow = firstRow(bullet.getY());
+        int lastRow = lastRow(bullet.getY(), Bullet.BULLET_SIZE);
+
+        // Find the row of impact: the first live one the bullet travels into
+        int step = bullet.getDirection() < 0 ? -1 : 1;
+        int row = step > 0 ? firstRow : lastRow;
+        while (row >= firstRow && row <= lastRow && (cells[row] & mask) == 0) {
+            row += step;
+        }
+        if (row < firstRow || row > lastRow) {
+            return;
+        }
+        blast(bullet.getX(), Bullet.BULLET_SIZE, row, step, blastRadius, blastDepth);
+    }
+
+    /**
+     * Clears a blast of cells where a box moving straight up or down hit the
+     * shield.
+     *
+     * @param boxX        The x-coordinate of the box.
+     * @param boxWidth    The width of the box.
+     * @param row         The row of impact, as found by firstRowAlong.
+     * @param direction   The direction the box moved in, -1 up or 1 down.
+     * @param blastRadius The cells cleared on either side of the impact.
+     * @param blastDepth  The rows of cells cleared.
+     */
+
+    public final void blast(int boxX, int boxWidth, int row, int direction, int blastRadius, int blastDepth) {
+        // Widen the mask to the blast and clear it on the impact rows
+        long mask = columnMask(boxX, boxWidth);
+        long blast = mask;
+        for (int r = 1; r <= blastRadius; r++) {
+            blast |= (mask << r) | (mask >>> r);
+        }
+        blast &= FULL_ROW;
+        int step = direction < 0 ? -1 : 1;
+        for (int depth = 0; depth < blastDepth && row >= 0 && row < CELL_ROWS; depth++, row += step) {
+            clear(row, blast);
+        }
+    }
+
+    /**
+     * Finds the first live row of cells a box runs into when it moves
+     * straight up or down. Rows the box overlaps before it moves count as
+     * run into straight away.
+     *
+     * @param boxX      The x-coordinate of the box.
+     * @param boxY      The y-coordinate of the box before it moves.
+     * @param boxWidth  The width of the box.
+     * @param boxHeight The height of the box.
+     * @param dy        The distance the box moves, negative for up.
+     * @return The row, or -1 if the box does not touch a live cell.
      */
-    public final void hit() {
-        // Increase hit count and check if the obstacle should disappear
-        hitCount++;
-        if (hitCount >= 5) {
-            x = -1; // Move the obstacle off-screen to "remove" it
+
+    public final int firstRowAlong(int boxX, int boxY, int boxWidth, int boxHeight, int dy) {
+        int top = Math.min(boxY, boxY + dy);
+        int bottom = Math.max(boxY, boxY + dy) + boxHeight;
+        if (boxX >= x + WIDTH || boxX + boxWidth <= x || top >= y + HEIGHT || bottom <= y) {
+            return -1;
         }
+        long mask = columnMask(boxX, boxWidth);
+        int first = firstRow(top);
+        int last = lastRow(top, bottom - top);
+        int step = dy < 0 ? -1 : 1;
+        for (int row = step > 0 ? first : last; row >= first && row <= last; row += step) {
+            if ((cells[row] & mask) != 0) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * @param row A row of cells.
+     * @return The y-coordinate of the top of the row.
+     */
+
+    public final int getRowY(int row) {
+        return y + row * CELL_SIZE;
+    }
+
+    /**
+     * Destroys every cell under a box.
+     *
+     * @param boxX      The x-coordinate of the box.
+     * @param boxY      The y-coordinate of the box.
+     * @param boxWidth  The width of the box.
+     * @param boxHeight The height of the box.
+     */
+
+    public final void erode(int boxX, int boxY, int boxWidth, int boxHeight) {
+        if (boxX >= x + WIDTH || boxX + boxWidth <= x || boxY >= y + HEIGHT || boxY + boxHeight <= y) {
+            return;
+        }
+        long mask = columnMask(boxX, boxWidth);
+        int lastRow = lastRow(boxY, boxHeight);
+        for (int row = firstRow(boxY); row <= lastRow; row++) {
+            clear(row, mask);
+        }
+    }
+
+    /**
+     * Copies the rows of cells into an array.
+     *
+     * @param destination Receives CELL_ROWS rows of cells.
+     * @param offset      The index to copy the first row to.
+     */
+
+    public final void copyCells(long[] destination, int offset) {
+        System.arraycopy(cells, 0, destination, offset, CELL_ROWS);
+    }
+
+    /**
+     *
+     * @return true once every cell of the shield has been destroyed.
+     */
+
+    public final boolean isDestroyed() {
+        return liveCells == 0;
+    }
+
+    /**
+     *
+     * @return A counter that changes every time cells are destroyed.
+     */
+
+    public final int getVersion() {
+        return version;
+    }
+
+    /**
+     *
+     * @return The number of cells that have not been destroyed.
+     */
+
+    public final int getLiveCells() {
+        return liveCells;
+    }
+
+    private final void clear(int row, long mask) {
+        int destroyed = Long.bitCount(cells[row] & mask);
+        if (destroyed > 0) {
+            liveCells -= destroyed;
+            cells[row] &= ~mask;
+            version++;
+        }
+    }
+
+    // Bits of the cell columns covered by [boxX, boxX + boxWidth)
+    private final long columnMask(int boxX, int boxWidth) {
+        int first = Math.max(0, (boxX - x) / CELL_SIZE);
+        int last = Math.min(CELL_COLUMNS - 1, Math.floorDiv(boxX + boxWidth - 1 - x, CELL_SIZE));
+        if (last < first) {
+            return 0;
+        }
+        return (FULL_ROW >>> (CELL_COLUMNS - (last - first + 1))) << first;
+    }
+
+    private final int firstRow(int boxY) {
+        return Math.max(0, (boxY - y) / CELL_SIZE);
+    }
+
+    private final int lastRow(int boxY, int boxHeight) {
+        return Math.min(CELL_ROWS - 1, Math.floorDiv(boxY + boxHeight - 1 - y, CELL_SIZE));
     }
 }
@@ -1,23 +1,22 @@
 
 import java.awt.*;
-import java.util.Iterator;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 /**
  * Represents the player in the Space Invaders game.
- * This class manages the player's position, movement, and actions such as
- * firing bullets.
+ * This class manages the player's position and movement; the bullets it
+ * fires are held by the World. Collision tests compare coordinates directly,
+ * so they never allocate.
  */
 public final class Player {
     private int x;
     private int y;
-    private long lastBulletTime;
-
-    private final List<Bullet> bullets;
 
     public static final int PLAYER_SIZE = 40;
 
+    // Bytes written by writeState
+    public static final int STATE_SIZE = 8;
+
     /**
      * Constructs a new Player with specified coordinates.
      * 
@@ -28,8 +27,6 @@ public final class Player {
     public Player(int x, int y) {
         this.x = x;
         this.y = y;
-        this.bullets = new ArrayList<>();
-        this.lastBulletTime = System.currentTimeMillis();
     }
 
     /**
@@ -48,36 +45,6 @@ public final class Player {
         x = Math.min(x + 10, 700);
     }
 
-    /**
-     * Updates the state of the player and its bullets.
-     * This includes moving the bullets and removing any that are out of bounds.
-     */
-
-    public final void update() {
-        // Update player bullets
-        Iterator<Bullet> playerBulletIterator = bullets.iterator();
-        while (playerBulletIterator.hasNext()) {
-            Bullet bullet = playerBulletIterator.next();
-            bullet.update();
-
-            // Remove bullets that are out of bounds
-            if (bullet.getY() < 0) {
-                playerBulletIterator.remove();
-            }
-        }
-    }
-
-    /**
-     * Fires a bullet from the player's position if the cooldown period has elapsed.
-     */
-
-    public final void fireBullet() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastBulletTime > 4000) {
-            bullets.add(new Bullet(x + PLAYER_SIZE / 2, y, -1));
-        }
-    }
-
     /**
      * Renders the player on the game panel.
      * 
@@ -98,7 +65,7 @@ public final class Player {
      */
 
     public final boolean intersects(Rectangle other) {
-        return new Rectangle(x, y, 40, 40).intersects(other);
+        return other.width > 0 && other.height > 0 && overlaps(other.x, other.y, other.width, other.height);
     }
 
     /**
@@ -110,7 +77,7 @@ public final class Player {
      */
 
     public final boolean intersects(Alien alien) {
-        return intersects(new Rectangle(alien.getX(), alien.getY(), Alien.ALIEN_SIZE, Alien.ALIEN_SIZE));
+        return overlaps(alien.getX(), alien.getY(), Alien.ALIEN_SIZE, Alien.ALIEN_SIZE);
     }
 
     /**
@@ -122,7 +89,7 @@ public final class Player {
      */
 
     public final boolean intersects(Bullet bullet) {
-        return intersects(new Rectangle(bullet.getX(), bullet.getY(), Bullet.BULLET_SIZE, Bullet.BULLET_SIZE));
+        return overlaps(bullet.getX(), bullet.getY(), Bullet.BULLET_SIZE, Bullet.BULLET_SIZE);
     }
 
     /**
@@ -135,7 +102,35 @@ public final class Player {
      */
 
     public final boolean intersects(Obstacle obstacle) {
-        return intersects(new Rectangle(obstacle.getX(), obstacle.getY(), Obstacle.WIDTH, Obstacle.HEIGHT));
+        return overlaps(obstacle.getX(), obstacle.getY(), Obstacle.WIDTH, Obstacle.HEIGHT);
+    }
+
+    // Same test as Rectangle.intersects, without creating rectangles
+    private final boolean overlaps(int otherX, int otherY, int otherWidth, int otherHeight) {
+        return x < otherX + otherWidth && x + PLAYER_SIZE > otherX &&
+                y < otherY + otherHeight && y + PLAYER_SIZE > otherY;
+    }
+
+    /**
+     * Writes the position of the player, see {@link World#writeState}.
+     *
+     * @param buffer The buffer to write to.
+     */
+
+    public final void writeState(ByteBuffer buffer) {
+        buffer.putInt(x);
+        buffer.putInt(y);
+    }
+
+    /**
+     * Moves the player to a position written by writeState.
+     *
+     * @param buffer The buffer to read from.
+     */
+
+    public final void readState(ByteBuffer buffer) {
+        x = buffer.getInt();
+        y = buffer.getInt();
     }
 
     public final int getX() {
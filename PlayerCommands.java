@@ -0,0 +1,38 @@
+/**
+ * The commands a player can give in one tick, one bit each so a tick's input
+ * fits in one byte. GameInput produces them from key events, and replays,
+ * clients, rooms and scripted players pass them around as plain ints. This
+ * class has no AWT dependencies, so a headless world can apply commands
+ * without loading any of the display classes.
+ */
+
+public final class PlayerCommands {
+    public static final int MOVE_LEFT = 1;
+    public static final int MOVE_RIGHT = 2;
+    public static final int FIRE = 4;
+
+    // Handled by the simulation itself, never by the world
+    public static final int REWIND = 8;
+
+    private PlayerCommands() {
+    }
+
+    /**
+     * Applies one tick's worth of commands to a world.
+     *
+     * @param world The world whose player is controlled.
+     * @param input A combination of MOVE_LEFT, MOVE_RIGHT and FIRE.
+     */
+
+    public static final void apply(World world, int input) {
+        if ((input & MOVE_LEFT) != 0) {
+            world.movePlayerLeft();
+        }
+        if ((input & MOVE_RIGHT) != 0) {
+            world.movePlayerRight();
+        }
+        if ((input & FIRE) != 0) {
+            world.firePlayerBullet();
+        }
+    }
+}
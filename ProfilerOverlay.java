@@ -0,0 +1,102 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+
+/**
+ * Draws the phase timings of a TickProfiler in the top right corner of the
+ * screen: p50, p99 and max of every phase in microseconds, and the bytes the
+ * last tick allocated.
+ * The overlay is drawn on top of a finished frame, never into the surfaces
+ * that keep frames from one to the next, so it does not disturb incremental
+ * rendering. Toggling it with F3 also switches the profiler on and off.
+ */
+
+public final class ProfilerOverlay {
+    private static final int WIDTH = 250;
+    private static final int LINE_HEIGHT = 14;
+    private static final int MARGIN = 10;
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 180);
+
+    private final TickProfiler profiler;
+
+    /**
+     * Constructs an overlay.
+     *
+     * @param profiler The profiler whose timings are shown.
+     */
+
+    public ProfilerOverlay(TickProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Shows or hides the overlay.
+     */
+
+    public final void toggle() {
+        profiler.setEnabled(!profiler.isEnabled());
+    }
+
+    public final boolean isVisible() {
+        return profiler.isEnabled();
+    }
+
+    /**
+     * Draws the overlay if it is visible.
+     *
+     * @param g2d         Draws onto the finished frame.
+     * @param screenWidth The width of the frame.
+     */
+
+    public final void render(Graphics2D g2d, int screenWidth) {
+        if (!profiler.isEnabled()) {
+            return;
+        }
+        int x = getX(screenWidth);
+        int y = getY();
+        g2d.setColor(BACKGROUND);
+        g2d.fillRect(x, y, WIDTH, getHeight());
+        g2d.setFont(FONT);
+        g2d.setColor(Color.WHITE);
+
+        int line = y + LINE_HEIGHT;
+        g2d.drawString(String.format("%-10s%9s%9s%9s", "phase us", "p50", "p99", "max"), x + 5, line);
+        for (int phase = 0; phase < TickProfiler.PHASE_COUNT; phase++) {
+            LatencyHistogram histogram = profiler.getHistogram(phase);
+            line += LINE_HEIGHT;
+            g2d.drawString(String.format("%-10s%9.1f%9.1f%9.1f", TickProfiler.getPhaseName(phase),
+                    histogram.getPercentile(0.5) / 1e3, histogram.getPercentile(0.99) / 1e3,
+                    histogram.getMax() / 1e3), x + 5, line);
+        }
+        line += LINE_HEIGHT;
+        g2d.drawString("allocated/tick " + profiler.getLastAllocated() + " B", x + 5, line);
+    }
+
+    /**
+     *
+     * @return The height of the overlay box.
+     */
+
+    public final int getHeight() {
+        return (TickProfiler.PHASE_COUNT + 2) * LINE_HEIGHT + 6;
+    }
+
+    /**
+     *
+     * @param screenWidth The width of the frame.
+     * @return The x-coordinate of the left edge of the overlay box.
+     */
+
+    public final int getX(int screenWidth) {
+        return screenWidth - WIDTH - MARGIN;
+    }
+
+    public final int getY() {
+        return MARGIN;
+    }
+
+    public final int getWidth() {
+        return WIDTH;
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays a replay written by a ReplayRecorder back into a new world, headless
+ * and as fast as the world can be stepped.
+ * The world is recreated from the seed and formation size in the header and
+ * given the recorded input tick by tick; nothing is drawn and no clock is
+ * read between ticks. Once the input runs out, the final score and state hash
+ * are compared with the ones in the footer, so a playback that matches proves
+ * the session was reproduced exactly.
+ */
+
+public final class ReplayPlayer {
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The outcome of playing a replay.
+     */
+    public static final class Result {
+        private final long ticks;
+        private final long nanos;
+        private final int score;
+        private final int expectedScore;
+        private final long stateHash;
+        private final long expectedStateHash;
+
+        private Result(long ticks, long nanos, int score, int expectedScore, long stateHash,
+                long expectedStateHash) {
+            this.ticks = ticks;
+            this.nanos = nanos;
+            this.score = score;
+            this.expectedScore = expectedScore;
+            this.stateHash = stateHash;
+            this.expectedStateHash = expectedStateHash;
+        }
+
+        /**
+         *
+         * @return true if the playback ended with the recorded score and
+         *         state hash.
+         */
+
+        public final boolean matches() {
+            return score == expectedScore && stateHash == expectedStateHash;
+        }
+
+        public final long getTicks() {
+            return ticks;
+        }
+
+        /**
+         *
+         * @return The time the playback took in nanoseconds.
+         */
+
+        public final long getNanos() {
+            return nanos;
+        }
+
+        public final int getScore() {
+            return score;
+        }
+
+        public final long getStateHash() {
+            return stateHash;
+        }
+
+        /**
+         *
+         * @return How many times faster than real time the replay was played.
+         */
+
+        public final double getSpeedup() {
+            return ticks * World.TICK_MILLIS * 1_000_000.0 / Math.max(1, nanos);
+        }
+
+        @Override
+        public final String toString() {
+            return String.format("%d ticks in %.1f ms (%.0fx real time), score %d, expected %d, "
+                    + "state %016x, expected %016x: %s", ticks, nanos / 1e6, getSpeedup(), score,
+                    expectedScore, stateHash, expectedStateHash, matches() ? "match" : "MISMATCH");
+        }
+    }
+
+    private ReplayPlayer() {
+    }
+
+    /**
+     * Plays a replay file back.
+     *
+     * @param path The replay to play.
+     * @return The outcome of the playback.
+     * @throws IOException If the file cannot be read or is not a complete
+     *                     replay.
+     */
+
+    public static final Result play(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < ReplayRecorder.HEADER_SIZE + ReplayRecorder.FOOTER_SIZE) {
+                throw new IOException("Replay is truncated: " + path);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(ReplayRecorder.HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt() != ReplayRecorder.MAGIC) {
+                throw new IOException("Not a replay: " + path);
+            }
+            int version = header.getInt();
+            if (version != ReplayRecorder.VERSION) {
+                throw new IOException("Unsupported replay version " + version + ": " + path);
+            }
+            long seed = header.getLong();
+            int rows = header.getInt();
+            int columns = header.getInt();
+
+            ByteBuffer footer = ByteBuffer.allocate(ReplayRecorder.FOOTER_SIZE);
+            long inputEnd = size - ReplayRecorder.FOOTER_SIZE;
+            readFully(channel, footer, inputEnd);
+            long ticks = inputEnd - ReplayRecorder.HEADER_SIZE;
+            if (footer.getInt() != ReplayRecorder.FOOTER_MAGIC || footer.getLong() != ticks) {
+                throw new IOException("Replay was not finished: " + path);
+            }
+            int expectedScore = footer.getInt();
+            long expectedStateHash = footer.getLong();
+
+            World world = new World(GameState.create(), rows, columns, seed);
+            ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long start = System.nanoTime();
+            long position = ReplayRecorder.HEADER_SIZE;
+            while (position < inputEnd) {
+                input.clear();
+                input.limit((int) Math.min(BUFFER_SIZE, inputEnd - position));
+                readFully(channel, input, position);
+                position += input.remaining();
+                while (input.hasRemaining()) {
+                    world.step(input.get());
+                }
+            }
+            long nanos = System.nanoTime() - start;
+
+            return new Result(ticks, nanos, world.getGameState().getScore(), expectedScore,
+                    world.getStateHash(), expectedStateHash);
+        }
+    }
+
+    // Fills a buffer from the given file position and flips it for reading
+    private static final void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of replay");
+            }
+        }
+        buffer.flip();
+    }
+}
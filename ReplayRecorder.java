@@ -0,0 +1,123 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the input of a deterministic world to a replay file, one byte per
+ * tick.
+ * A replay starts with a header holding the seed and formation size the world
+ * was created with, followed by the bitmask of PlayerCommands given on
+ * each tick. Closing the recorder appends a footer with the number of ticks
+ * and the final score and state hash, against which a ReplayPlayer checks its
+ * playback. All values are big-endian.
+ * Ticks are collected in a direct buffer and written to a FileChannel only
+ * when it is full, so recording costs one byte store per tick.
+ */
+
+public final class ReplayRecorder implements Closeable {
+    public static final int MAGIC = 0x53495250;
+    public static final int FOOTER_MAGIC = 0x53495245;
+    // Raised whenever the same seed and input play out differently
+    public static final int VERSION = 4;
+
+    // Magic, version, seed, formation rows and columns
+    public static final int HEADER_SIZE = 24;
+
+    // Magic, tick count, score and state hash
+    public static final int FOOTER_SIZE = 24;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final World world;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long tickCount;
+    private boolean closed;
+
+    /**
+     * Creates a replay file, replacing any existing one, and writes its
+     * header.
+     *
+     * @param path  The file to write.
+     * @param world The world whose input is recorded; it must not have been
+     *              stepped yet.
+     * @throws IOException If the file cannot be written.
+     */
+
+    public ReplayRecorder(Path path, World world) throws IOException {
+        if (world.getTickCount() != 0) {
+            throw new IllegalArgumentException("Replays must start with a new world");
+        }
+        this.world = world;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(world.getSeed());
+        buffer.putInt(world.getFormationRows());
+        buffer.putInt(world.getFormationColumns());
+    }
+
+    /**
+     * Records the input of the next tick.
+     *
+     * @param input The commands given on the tick, a combination of the
+     *              PlayerCommands bits.
+     * @throws IOException If the buffered ticks cannot be written.
+     */
+
+    public final void record(int input) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) input);
+        tickCount++;
+    }
+
+    /**
+     *
+     * @return The number of ticks recorded so far.
+     */
+
+    public final long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Writes the footer from the current state of the world and closes the
+     * file. Calling this again has no effect.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+
+    @Override
+    public final void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (buffer.remaining() < FOOTER_SIZE) {
+                flush();
+            }
+            buffer.putInt(FOOTER_MAGIC);
+            buffer.putLong(tickCount);
+            buffer.putInt(world.getGameState().getScore());
+            buffer.putLong(world.getStateHash());
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private final void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,298 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the recent history of a world in a fixed amount of memory, so the
+ * world can be returned to any of its last ticks.
+ * Every tick the world writes its state with {@link World#writeState}. Every
+ * keyframeInterval ticks the state is stored whole as a keyframe; in between,
+ * only the bytes that differ from the last keyframe are stored, encoded by
+ * DeltaCodec, which for a world that changed little is a small fraction of
+ * its size. Records go into one preallocated byte ring; when it
+ * or the tick index is full, the oldest keyframe is dropped together with
+ * every delta that depends on it.
+ * The index is addressed by tick, so finding the record of a tick, and the
+ * keyframe it was encoded against, takes constant time. Restoring decodes
+ * exactly one keyframe and at most one delta, however old the tick is.
+ * Capturing or restoring does not allocate once the scratch buffers have
+ * grown to the size of the world.
+ */
+
+public final class RewindBuffer {
+    private final byte[] ring;
+    private final int keyframeInterval;
+
+    // Per tick, at index tick % maxTicks: where its record starts in the
+    // ever-growing byte position of the ring, its length, the keyframe it is
+    // encoded against, and the length of the state it decodes to
+    private final long[] positions;
+    private final int[] lengths;
+    private final long[] keyframeTicks;
+    private final int[] stateLengths;
+
+    // Ticks held, or -1 for both when empty
+    private long firstTick = -1;
+    private long lastTick = -1;
+
+    // Byte position just past the newest record
+    private long tail;
+
+    // The newest keyframe, which new deltas are encoded against
+    private long keyframeTick = -1;
+    private byte[] keyframe = new byte[0];
+    private int keyframeLength;
+
+    // Scratch space for the current state, its encoding and a decoded state
+    private byte[] state = new byte[0];
+    private ByteBuffer stateBuffer = ByteBuffer.wrap(state);
+    private byte[] encoded = new byte[0];
+    private byte[] decoded = new byte[0];
+    private ByteBuffer decodedBuffer = ByteBuffer.wrap(decoded);
+
+    /**
+     * Constructs an empty buffer.
+     *
+     * @param capacity         The most bytes of records held at once.
+     * @param maxTicks         The most ticks held at once.
+     * @param keyframeInterval The number of ticks from one keyframe to the
+     *                         next.
+     */
+
+    public RewindBuffer(int capacity, int maxTicks, int keyframeInterval) {
+        if (capacity <= 0 || maxTicks <= 0 || keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Rewind buffer sizes must be positive");
+        }
+        this.ring = new byte[capacity];
+        this.keyframeInterval = keyframeInterval;
+        this.positions = new long[maxTicks];
+        this.lengths = new int[maxTicks];
+        this.keyframeTicks = new long[maxTicks];
+        this.stateLengths = new int[maxTicks];
+    }
+
+    /**
+     * Records the current state of a world as its current tick.
+     * Ticks after it that are already held, such as after the world was
+     * restored to an earlier tick, are discarded first. A world that skipped
+     * ticks since the last capture starts a new history.
+     *
+     * @param world The world to record.
+     * @return false if the state is too large for the buffer and was not
+     *         recorded; the buffer is then empty.
+     */
+
+    public final boolean capture(World world) {
+        long tick = world.getTickCount();
+        if (lastTick >= 0 && tick <= lastTick) {
+            truncate(tick - 1);
+        }
+        if (lastTick >= 0 && tick != lastTick + 1) {
+            clear();
+        }
+
+        int size = world.getStateSize();
+        if (state.length < size) {
+            state = new byte[size];
+            stateBuffer = ByteBuffer.wrap(state);
+            encoded = new byte[size];
+        }
+        stateBuffer.clear();
+        world.writeState(stateBuffer);
+
+        // A delta is only stored while its keyframe can stay alongside it
+        int length = -1;
+        if (keyframeTick >= 0 && tick - keyframeTick < keyframeInterval
+                && tick - keyframeTick < positions.length) {
+            length = DeltaCodec.encode(state, size, keyframe, keyframeLength, encoded, 0, size);
+            if (length >= 0) {
+                long start = positions[index(keyframeTick)];
+                if (place(length) + length - start > ring.length) {
+                    length = -1;
+                }
+            }
+        }
+
+        boolean isKeyframe = length < 0;
+        byte[] record = isKeyframe ? state : encoded;
+        if (isKeyframe) {
+            length = size;
+            if (length > ring.length) {
+                clear();
+                return false;
+            }
+        }
+
+        // Make room in the index and the ring
+        long position = place(length);
+        while (firstTick >= 0 && (tick - firstTick >= positions.length
+                || position + length - positions[index(firstTick)] > ring.length)) {
+            dropOldestKeyframe();
+        }
+
+        int offset = (int) (position % ring.length);
+        System.arraycopy(record, 0, ring, offset, length);
+        int slot = index(tick);
+        positions[slot] = position;
+        lengths[slot] = length;
+        stateLengths[slot] = size;
+        tail = position + length;
+        if (isKeyframe) {
+            setKeyframe(tick, state, 0, size);
+        }
+        keyframeTicks[slot] = keyframeTick;
+        if (firstTick < 0) {
+            firstTick = tick;
+        }
+        lastTick = tick;
+        return true;
+    }
+
+    /**
+     * Returns a world to the state it had at a tick held by this buffer. The
+     * history is kept, so a world can be restored repeatedly, back and forth;
+     * it is only cut short once the restored world is captured again.
+     *
+     * @param world The world to restore; it must have the same formation size
+     *              as the one captured.
+     * @param tick  The tick to return to, from getFirstTick to getLastTick.
+     */
+
+    public final void restore(World world, long tick) {
+        if (tick < firstTick || tick > lastTick) {
+            throw new IllegalArgumentException("Tick " + tick + " is not held");
+        }
+        int size = decode(tick);
+        decodedBuffer.clear();
+        decodedBuffer.limit(size);
+        world.readState(decodedBuffer);
+    }
+
+    /**
+     * Removes every tick.
+     */
+
+    public final void clear() {
+        firstTick = -1;
+        lastTick = -1;
+        keyframeTick = -1;
+    }
+
+    /**
+     *
+     * @return The oldest tick held, or -1 if the buffer is empty.
+     */
+
+    public final long getFirstTick() {
+        return firstTick;
+    }
+
+    /**
+     *
+     * @return The newest tick held, or -1 if the buffer is empty.
+     */
+
+    public final long getLastTick() {
+        return lastTick;
+    }
+
+    /**
+     *
+     * @param tick A tick held by this buffer.
+     * @return The keyframe the tick is restored from.
+     */
+
+    public final long getKeyframeTick(long tick) {
+        if (tick < firstTick || tick > lastTick) {
+            throw new IllegalArgumentException("Tick " + tick + " is not held");
+        }
+        return keyframeTicks[index(tick)];
+    }
+
+    /**
+     *
+     * @return The number of bytes taken by the records held, including space
+     *         skipped at the end of the ring.
+     */
+
+    public final long getBytesUsed() {
+        return firstTick < 0 ? 0 : tail - positions[index(firstTick)];
+    }
+
+    /**
+     *
+     * @return The most bytes of records held at once.
+     */
+
+    public final int getCapacity() {
+        return ring.length;
+    }
+
+    private final int index(long tick) {
+        return (int) (tick % positions.length);
+    }
+
+    // Records never wrap around the end of the ring; one that would starts
+    // again at the front
+    private final long place(int length) {
+        int offset = (int) (tail % ring.length);
+        return offset + length > ring.length ? tail + ring.length - offset : tail;
+    }
+
+    private final void dropOldestKeyframe() {
+        long dropped = keyframeTicks[index(firstTick)];
+        while (firstTick <= lastTick && keyframeTicks[index(firstTick)] == dropped) {
+            firstTick++;
+        }
+        if (firstTick > lastTick) {
+            clear();
+        }
+    }
+
+    // Keeps the ticks up to and including a given one
+    private final void truncate(long tick) {
+        if (tick < firstTick) {
+            clear();
+            return;
+        }
+        int slot = index(tick);
+        lastTick = tick;
+        tail = positions[slot] + lengths[slot];
+        long key = keyframeTicks[slot];
+        int keySlot = index(key);
+        setKeyframe(key, ring, (int) (positions[keySlot] % ring.length), stateLengths[keySlot]);
+    }
+
+    private final void setKeyframe(long tick, byte[] source, int offset, int length) {
+        if (keyframe.length < length) {
+            keyframe = new byte[length];
+        }
+        System.arraycopy(source, offset, keyframe, 0, length);
+        keyframeTick = tick;
+        keyframeLength = length;
+    }
+
+    // Decodes the state of a tick into the decoded scratch array
+    private final int decode(long tick) {
+        int slot = index(tick);
+        int size = stateLengths[slot];
+        if (decoded.length < size) {
+            decoded = new byte[size];
+            decodedBuffer = ByteBuffer.wrap(decoded);
+        }
+
+        long key = keyframeTicks[slot];
+        int keySlot = index(key);
+        int keyOffset = (int) (positions[keySlot] % ring.length);
+        int keyLength = stateLengths[keySlot];
+        int copied = Math.min(keyLength, size);
+        System.arraycopy(ring, keyOffset, decoded, 0, copied);
+        for (int i = copied; i < size; i++) {
+            decoded[i] = 0;
+        }
+        if (key == tick) {
+            return size;
+        }
+
+        DeltaCodec.decode(ring, (int) (positions[slot] % ring.length), lengths[slot], decoded);
+        return size;
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One match hosted by a RoomHost. A room owns its World and that world's
+ * GameState, so rooms share nothing and any number of them can play at once.
+ * Commands for the player may be offered from any thread; those offered
+ * between two ticks are combined and applied together on the next one, as
+ * GameServer merges a backlog of inputs. A room played by a policy decides
+ * its own commands instead.
+ * A room is ticked only while someone is in it. Rooms nobody has joined, or
+ * everyone has left, are parked by the host and cost nothing until they are
+ * joined again. A room whose game is over stays parked for good.
+ */
+
+public final class Room {
+    private final RoomHost host;
+    private final int slot;
+    private final World world;
+    private final BalanceTuner.Policy policy;
+
+    private final AtomicInteger members = new AtomicInteger();
+    private final AtomicInteger commands = new AtomicInteger();
+    private volatile boolean finished;
+
+    // Touched only by the host's clock thread
+    boolean scheduled;
+
+    // Written by the pool thread that ticks the room, and read by the clock
+    // thread once the tick's batch is done; lateness is -1 if the room was
+    // not ticked
+    long lateness = -1;
+    long tickNanos;
+
+    /**
+     * Constructs a room; created by RoomHost.open.
+     */
+
+    Room(RoomHost host, int slot, World world, BalanceTuner.Policy policy) {
+        this.host = host;
+        this.slot = slot;
+        this.world = world;
+        this.policy = policy;
+    }
+
+    /**
+     * Adds a member to the room, waking it if it was parked.
+     */
+
+    public final void join() {
+        if (members.getAndIncrement() == 0) {
+            host.wake(this);
+        }
+    }
+
+    /**
+     * Removes a member from the room. The host parks the room once the last
+     * member has left.
+     */
+
+    public final void leave() {
+        int current;
+        do {
+            current = members.get();
+            if (current == 0) {
+                throw new IllegalStateException("Nobody is in the room");
+            }
+        } while (!members.compareAndSet(current, current - 1));
+    }
+
+    /**
+     * Gives the player commands for the next tick. Ignored by a room played
+     * by a policy.
+     *
+     * @param command A combination of the PlayerCommands bits.
+     */
+
+    public final void offer(int command) {
+        int current;
+        do {
+            current = commands.get();
+        } while (!commands.compareAndSet(current, current | command));
+    }
+
+    /**
+     * Steps the world once; called by the host on one of its pool threads.
+     */
+
+    final void tick() {
+        int input = policy != null ? policy.decide(world) : commands.getAndSet(0);
+        world.step(input);
+        if (world.isGameOver()) {
+            finished = true;
+        }
+    }
+
+    /**
+     *
+     * @return true if the host should not tick the room.
+     */
+
+    final boolean isIdle() {
+        return finished || members.get() == 0;
+    }
+
+    final int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns the world of the room. It is stepped on the host's pool
+     * threads, so it may only be read while the room is parked or the host
+     * is stopped.
+     *
+     * @return The world.
+     */
+
+    public final World getWorld() {
+        return world;
+    }
+
+    /**
+     *
+     * @return The number of members in the room.
+     */
+
+    public final int getMembers() {
+        return members.get();
+    }
+
+    /**
+     *
+     * @return true once the game in the room is over.
+     */
+
+    public final boolean isFinished() {
+        return finished;
+    }
+}
@@ -0,0 +1,343 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs many independent matches, each in its own Room, in one JVM.
+ * Rooms are ticked on a work-stealing ForkJoinPool, the same scheduler that
+ * carries virtual threads, so a few threads serve thousands of rooms and a
+ * thread that runs out of rooms steals from the others. One clock thread
+ * decides when each room is due. The tick period is split into SLOTS slots
+ * and every room is placed in one of them, so the rooms' ticks are spread
+ * evenly over the period instead of all falling due at once. When a slot is
+ * due, its rooms are handed to the pool as one batch, which splits itself
+ * into tasks of ROOMS_PER_TASK rooms.
+ * A slot whose previous batch is still running when it is due again skips
+ * that tick, so a room is never ticked by two threads at once and an
+ * overloaded host falls behind by dropping ticks rather than by queueing
+ * them. Each ticked room records how late its tick started; the clock thread
+ * collects these into one histogram when the batch is done, and keeps a
+ * second one of how late it woke up itself.
+ * Rooms that become idle are taken out of their slot on its next visit and
+ * cost nothing until they are woken. Only the clock thread changes a slot,
+ * and only while the slot has no batch running; rooms that are opened or
+ * woken are queued on their slot until then.
+ */
+
+public final class RoomHost {
+    // Slots per tick period, and rooms a task ticks itself instead of
+    // splitting further
+    private static final int SLOTS = 16;
+    private static final int ROOMS_PER_TASK = 8;
+
+    /**
+     * The rooms due at one point of the tick period.
+     */
+    private static final class Slot {
+        private final ConcurrentLinkedQueue<Room> arrivals = new ConcurrentLinkedQueue<>();
+        private Room[] rooms = new Room[16];
+        private int size;
+        private Batch batch;
+    }
+
+    /**
+     * Ticks a range of the rooms of a slot, splitting it in halves until the
+     * pieces are small enough.
+     */
+    private static final class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Room[] rooms;
+        private final int from;
+        private final int to;
+        private final long due;
+
+        private Batch(Room[] rooms, int from, int to, long due) {
+            this.rooms = rooms;
+            this.from = from;
+            this.to = to;
+            this.due = due;
+        }
+
+        @Override
+        protected final void compute() {
+            if (to - from <= ROOMS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    Room room = rooms[i];
+                    if (room.isIdle()) {
+                        room.lateness = -1;
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    room.tick();
+                    long end = System.nanoTime();
+                    room.lateness = start - due;
+                    room.tickNanos = end - start;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batch(rooms, from, middle, due), new Batch(rooms, middle, to, due));
+        }
+    }
+
+    private final long periodNanos;
+    private final ForkJoinPool pool;
+    private final Slot[] slots = new Slot[SLOTS];
+    private final Thread clock;
+    private volatile boolean running;
+
+    private final AtomicInteger openedRooms = new AtomicInteger();
+    private volatile int scheduledRooms;
+
+    // Written only by the clock thread
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final LatencyHistogram clockLateness = new LatencyHistogram();
+    private volatile long ticks;
+    private volatile long tickNanos;
+    private volatile long skippedTicks;
+    private volatile boolean clearRequested;
+
+    /**
+     * Constructs a host. Rooms may be opened before it is started.
+     *
+     * @param ticksPerSecond The tick rate of every room.
+     * @param threads        The number of threads ticking rooms.
+     */
+
+    public RoomHost(int ticksPerSecond, int threads) {
+        if (ticksPerSecond <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("The tick rate and the number of threads must be positive");
+        }
+        this.periodNanos = 1_000_000_000L / ticksPerSecond;
+        this.pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new Slot();
+        }
+        this.clock = new Thread(this::run, "rooms");
+        this.clock.setDaemon(true);
+    }
+
+    /**
+     * Opens a room with a new world. A room played by a policy counts as
+     * joined by it and is ticked from the next visit of its slot; any other
+     * room stays parked until it is joined.
+     *
+     * @param config The configuration of the world.
+     * @param seed   The seed of the world.
+     * @param policy The policy deciding the player's commands, or null if
+     *               they are offered to the room.
+     * @return The room.
+     */
+
+    public final Room open(GameConfig config, long seed, BalanceTuner.Policy policy) {
+        int slot = Math.floorMod(openedRooms.getAndIncrement(), SLOTS);
+        Room room = new Room(this, slot, new World(GameState.create(), config, seed), policy);
+        if (policy != null) {
+            room.join();
+        }
+        return room;
+    }
+
+    // Queues a room that was joined to be put back in its slot
+    final void wake(Room room) {
+        slots[room.getSlot()].arrivals.add(room);
+    }
+
+    /**
+     * Starts the clock thread. Calling this again has no effect.
+     */
+
+    public final synchronized void start() {
+        if (running || clock.isAlive()) {
+            return;
+        }
+        running = true;
+        clock.start();
+    }
+
+    /**
+     * Stops the clock thread, waits for the running batches to finish and
+     * shuts the pool down.
+     */
+
+    public final void stop() {
+        running = false;
+        LockSupport.unpark(clock);
+        try {
+            clock.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Slot slot : slots) {
+            if (slot.batch != null) {
+                slot.batch.join();
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Forgets the lateness, tick counts and skipped ticks recorded so far.
+     * The clock thread clears them before it next visits a slot.
+     */
+
+    public final void clearStatistics() {
+        clearRequested = true;
+    }
+
+    private final void run() {
+        long epoch = System.nanoTime();
+        for (long visit = 0; running; visit++) {
+            long due = epoch + visit * periodNanos / SLOTS;
+            long delay;
+            while (running && (delay = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            if (!running) {
+                break;
+            }
+            if (clearRequested) {
+                clearRequested = false;
+                lateness.clear();
+                clockLateness.clear();
+                ticks = 0;
+                tickNanos = 0;
+                skippedTicks = 0;
+            }
+            clockLateness.record(System.nanoTime() - due);
+            visit(slots[(int) (visit % SLOTS)], due);
+        }
+    }
+
+    // Collects the finished batch of a slot, takes out the rooms that have
+    // become idle, puts back the ones that were woken and starts a new batch
+    private final void visit(Slot slot, long due) {
+        if (slot.batch != null && !slot.batch.isDone()) {
+            skippedTicks += slot.size;
+            return;
+        }
+        slot.batch = null;
+
+        int removed = 0;
+        int kept = 0;
+        for (int i = 0; i < slot.size; i++) {
+            Room room = slot.rooms[i];
+            if (room.lateness >= 0) {
+                lateness.record(room.lateness);
+                ticks++;
+                tickNanos += room.tickNanos;
+                room.lateness = -1;
+            }
+            if (room.isIdle()) {
+                room.scheduled = false;
+                removed++;
+            } else {
+                slot.rooms[kept++] = room;
+            }
+        }
+        for (int i = kept; i < slot.size; i++) {
+            slot.rooms[i] = null;
+        }
+        slot.size = kept;
+
+        int added = 0;
+        for (Room room = slot.arrivals.poll(); room != null; room = slot.arrivals.poll()) {
+            if (room.scheduled || room.isIdle()) {
+                continue;
+            }
+            if (slot.size == slot.rooms.length) {
+                Room[] grown = new Room[slot.size * 2];
+                System.arraycopy(slot.rooms, 0, grown, 0, slot.size);
+                slot.rooms = grown;
+            }
+            room.scheduled = true;
+            slot.rooms[slot.size++] = room;
+            added++;
+        }
+        if (added != removed) {
+            scheduledRooms += added - removed;
+        }
+
+        if (slot.size > 0) {
+            slot.batch = new Batch(slot.rooms, 0, slot.size, due);
+            pool.execute(slot.batch);
+        }
+    }
+
+    /**
+     * Returns the histogram of how late room ticks started after they were
+     * due. Only the clock thread records to it, so other threads see counts
+     * that are slightly stale.
+     *
+     * @return The histogram, in nanoseconds.
+     */
+
+    public final LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    /**
+     * Returns the histogram of how late the clock thread woke up for each
+     * slot. This is the lateness no room can do better than, however few
+     * there are.
+     *
+     * @return The histogram, in nanoseconds.
+     */
+
+    public final LatencyHistogram getClockLateness() {
+        return clockLateness;
+    }
+
+    /**
+     *
+     * @return The number of room ticks completed.
+     */
+
+    public final long getTicks() {
+        return ticks;
+    }
+
+    /**
+     *
+     * @return The total time spent in room ticks, in nanoseconds.
+     */
+
+    public final long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     *
+     * @return The number of room ticks skipped because the previous batch of
+     *         their slot was still running.
+     */
+
+    public final long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     *
+     * @return The number of rooms opened.
+     */
+
+    public final int getRoomCount() {
+        return openedRooms.get();
+    }
+
+    /**
+     *
+     * @return The number of rooms being ticked; the others are parked.
+     */
+
+    public final int getScheduledRooms() {
+        return scheduledRooms;
+    }
+
+    public final int getThreads() {
+        return pool.getParallelism();
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.Locale;
+
+/**
+ * Finds how many rooms a RoomHost can tick at 60 Hz while the 99th
+ * percentile of tick lateness stays within 2 ms. A skipped tick counts as
+ * later than any other, so a host that skips more than 1% of its ticks
+ * fails.
+ * Lateness is judged against the clock of a host without rooms, measured
+ * first: on a loaded or virtualised machine the operating system alone can
+ * wake a thread milliseconds late, and that is not the rooms' doing.
+ * Each step opens a fresh host with a number of rooms played by a scripted
+ * player, plus IDLE_ROOMS rooms nobody joins, which the host parks. The host
+ * runs for WARMUP_SECONDS, then its statistics are cleared and it runs for
+ * MEASURE_SECONDS more. The room count doubles until a step fails, and is
+ * then narrowed down between the last passing and the first failing count.
+ * The test uses at most TARGET_THREADS threads. On a machine with fewer
+ * cores it also prints the count scaled up to TARGET_THREADS, which assumes
+ * rooms scale linearly with threads, as independent rooms on a work-stealing
+ * pool should; the measured count is the one to trust.
+ */
+
+public final class RoomLoadTest {
+    private static final int TICKS_PER_SECOND = 60;
+    private static final long MAX_P99_NANOS = 2_000_000L;
+    private static final int TARGET_THREADS = 8;
+
+    private static final int FIRST_ROOMS = 256;
+    private static final int IDLE_ROOMS = 1000;
+    private static final int WARMUP_SECONDS = 2;
+    private static final int MEASURE_SECONDS = 3;
+
+    // The search stops once the passing and failing counts are this close
+    private static final double PRECISION = 0.05;
+
+    /**
+     * The outcome of running a host with one number of rooms.
+     */
+    private static final class Step {
+        private final int rooms;
+        private final double tickNanos;
+        private final boolean kept;
+
+        private Step(int rooms, double tickNanos, boolean kept) {
+            this.rooms = rooms;
+            this.tickNanos = tickNanos;
+            this.kept = kept;
+        }
+    }
+
+    private RoomLoadTest() {
+    }
+
+    /**
+     * Runs the test.
+     *
+     * @param args The number of threads; optional.
+     */
+
+    public static final void main(String[] args) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.min(TARGET_THREADS, cores);
+        System.out.printf(Locale.ROOT, "# %d Hz, %d threads on %d cores%n", TICKS_PER_SECOND, threads, cores);
+
+        RoomHost empty = new RoomHost(TICKS_PER_SECOND, threads);
+        empty.start();
+        sleep(MEASURE_SECONDS);
+        empty.stop();
+        long floor = empty.getClockLateness().getPercentile(0.99);
+        long limit = floor + MAX_P99_NANOS;
+        System.out.printf(Locale.ROOT, "# the clock alone wakes %.3f ms late at p99; limit is %.3f ms%n",
+                floor / 1e6, limit / 1e6);
+
+        Step passed = null;
+        Step failed = null;
+        for (int rooms = FIRST_ROOMS; failed == null; rooms *= 2) {
+            Step step = step(rooms, threads, limit);
+            if (step.kept) {
+                passed = step;
+            } else {
+                failed = step;
+            }
+        }
+        for (int rooms = FIRST_ROOMS / 2; passed == null && rooms > 0; rooms /= 2) {
+            Step step = step(rooms, threads, limit);
+            if (step.kept) {
+                passed = step;
+            } else {
+                failed = step;
+            }
+        }
+        if (passed == null) {
+            System.out.printf(Locale.ROOT, "# not even one room fits on %d threads%n", threads);
+            return;
+        }
+        while (failed.rooms - passed.rooms > Math.max(1, passed.rooms * PRECISION)) {
+            Step step = step((passed.rooms + failed.rooms) >>> 1, threads, limit);
+            if (step.kept) {
+                passed = step;
+            } else {
+                failed = step;
+            }
+        }
+
+        double busy = passed.rooms * TICKS_PER_SECOND * passed.tickNanos / 1e9 / threads;
+        System.out.printf(Locale.ROOT, "# %d rooms fit on %d threads, %.1f us per room tick, threads %.0f%% busy%n",
+                passed.rooms, threads, passed.tickNanos / 1000, 100 * busy);
+        if (threads < TARGET_THREADS) {
+            System.out.printf(Locale.ROOT, "# about %d rooms on %d threads if rooms scale linearly%n",
+                    (long) passed.rooms * TARGET_THREADS / threads, TARGET_THREADS);
+        }
+    }
+
+    /**
+     * Runs one host with a number of active rooms and prints its lateness.
+     *
+     * @param limit The 99th percentile of lateness the host must stay under,
+     *              in nanoseconds.
+     */
+
+    private static final Step step(int rooms, int threads, long limit) {
+        RoomHost host = new RoomHost(TICKS_PER_SECOND, threads);
+        BalanceTuner.Policy policy = new BalanceTuner.TrackingPolicy();
+        for (int i = 0; i < rooms; i++) {
+            host.open(GameConfig.DEFAULT, i, policy);
+        }
+        for (int i = 0; i < IDLE_ROOMS; i++) {
+            host.open(GameConfig.DEFAULT, rooms + i, null);
+        }
+        host.start();
+        sleep(WARMUP_SECONDS);
+        host.clearStatistics();
+        sleep(MEASURE_SECONDS);
+        int scheduled = host.getScheduledRooms();
+        host.stop();
+
+        // Skipped ticks are the latest of all, so the 99th percentile of
+        // every tick is further up the recorded ones
+        LatencyHistogram lateness = host.getLateness();
+        long ticks = host.getTicks();
+        long skipped = host.getSkippedTicks();
+        long p99 = skipped * 100 > ticks + skipped ? Long.MAX_VALUE
+                : lateness.getPercentile(0.99 * (ticks + skipped) / Math.max(1, ticks));
+        long expected = (long) rooms * TICKS_PER_SECOND * MEASURE_SECONDS;
+        boolean kept = p99 < limit && ticks + skipped >= expected * 9 / 10;
+        System.out.printf(Locale.ROOT,
+                "rooms=%-6d ticked=%-6d parked=%-5d p50=%7.3f ms p99=%7.3f ms max=%7.3f ms skipped=%-7d %s%n", rooms,
+                scheduled, host.getRoomCount() - scheduled, lateness.getPercentile(0.5) / 1e6,
+                Math.min(p99, lateness.getMax()) / 1e6, lateness.getMax() / 1e6, skipped, kept ? "ok" : "too late");
+        return new Step(rooms, (double) host.getTickNanos() / Math.max(1, ticks), kept);
+    }
+
+    private static final void sleep(int seconds) {
+        try {
+            Thread.sleep(seconds * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps a world on a dedicated thread, so a slow frame can no longer stall
+ * the simulation.
+ * The thread runs a GameLoop at a fixed tick rate. Player commands reach it
+ * through a lock-free single-producer, single-consumer InputRing that the
+ * event dispatch thread fills and the simulation drains before every tick.
+ * After ticking, the simulation captures the world into a WorldSnapshot and
+ * publishes it through a TripleBuffer, from which the render thread takes the
+ * newest one. The live world is only ever touched by the simulation thread.
+ * The commands of each tick can also be written to a ReplayRecorder, so the
+ * session can be played back later.
+ * Every tick is also captured into a RewindBuffer holding the last few
+ * seconds, and a REWIND command takes the world back a couple of seconds.
+ * A simulation can also show a match hosted by a GameServer. Its world is
+ * then the one mirrored by a GameClient, which each tick sends the commands
+ * and applies the server's states instead of stepping the world; rewinding
+ * and recording are not available.
+ */
+
+public final class SimulationThread {
+    // Most key presses that can wait for the next tick
+    private static final int INPUT_CAPACITY = 256;
+
+    // History kept for rewinding, how far one rewind goes, and the memory
+    // the history may take
+    private static final int REWIND_HISTORY_SECONDS = 10;
+    private static final int REWIND_STEP_SECONDS = 2;
+    private static final int REWIND_CAPACITY = 1 << 20;
+
+    private final World world;
+    private final InputRing input = new InputRing(INPUT_CAPACITY);
+    private final TripleBuffer<WorldSnapshot> snapshots = new TripleBuffer<>(WorldSnapshot::new);
+    private final GameLoop gameLoop;
+    private final RewindBuffer rewindBuffer;
+    private final TickProfiler profiler = new TickProfiler();
+    private final int rewindStep;
+    private final Thread thread;
+    private volatile boolean running;
+    private ReplayRecorder recorder;
+    private boolean rewindEnabled = true;
+    private final GameClient client;
+
+    // Time passed to the current advance of the loop
+    private long frameTime;
+    private long publishedTick = -1;
+
+    /**
+     * Constructs a simulation that is not yet running, and publishes a
+     * snapshot of the world as it is.
+     *
+     * @param world          The world to step; from now on only the
+     *                       simulation thread may touch it.
+     * @param ticksPerSecond The fixed simulation rate.
+     */
+
+    public SimulationThread(World world, int ticksPerSecond) {
+        this(world, ticksPerSecond, null);
+    }
+
+    /**
+     * Constructs a simulation of a match hosted by a server that is not yet
+     * running, and publishes a snapshot of the world as it is.
+     *
+     * @param client         The client connected to the server; from now on
+     *                       only the simulation thread may touch it or its
+     *                       world.
+     * @param ticksPerSecond The fixed simulation rate of the server.
+     */
+
+    public SimulationThread(GameClient client, int ticksPerSecond) {
+        this(client.getWorld(), ticksPerSecond, client);
+        disableRewind();
+    }
+
+    private SimulationThread(World world, int ticksPerSecond, GameClient client) {
+        this.world = world;
+        this.client = client;
+        world.setProfiler(profiler);
+        this.rewindBuffer = new RewindBuffer(REWIND_CAPACITY, ticksPerSecond * REWIND_HISTORY_SECONDS,
+                ticksPerSecond);
+        this.rewindStep = ticksPerSecond * REWIND_STEP_SECONDS;
+        rewindBuffer.capture(world);
+        this.gameLoop = new GameLoop(ticksPerSecond, ticksPerSecond, new GameLoop.Simulation() {
+            @Override
+            public void tick() {
+                int commands = 0;
+                for (int command = input.poll(); command != -1; command = input.poll()) {
+                    commands |= command;
+                }
+                if (client != null) {
+                    client.tick(commands & ~PlayerCommands.REWIND);
+
+                    // Prediction can move the player without a new tick
+                    publishedTick = -1;
+                    return;
+                }
+                if ((commands & PlayerCommands.REWIND) != 0) {
+                    rewind();
+                    return;
+                }
+                record(commands);
+                long tick = world.getTickCount();
+                world.step(commands);
+                if (rewindEnabled && world.getTickCount() != tick) {
+                    long start = profiler.begin();
+                    rewindBuffer.capture(world);
+                    profiler.end(TickProfiler.REWIND, start, world.getTickCount());
+                }
+            }
+        }, new GameLoop.Renderer() {
+            @Override
+            public void render(double alpha) {
+                publish(frameTime - (long) (alpha * gameLoop.getTickNanos()));
+            }
+        });
+        this.thread = new Thread(this::run, "simulation");
+        this.thread.setDaemon(true);
+        publish(System.nanoTime());
+    }
+
+    /**
+     * Starts the simulation thread. Calling this again has no effect.
+     */
+
+    public final synchronized void start() {
+        if (running || thread.isAlive()) {
+            return;
+        }
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Records the input of every tick from now on. Must be called before the
+     * simulation is started.
+     *
+     * @param recorder The recorder to write to; closed when the simulation
+     *                 stops.
+     */
+
+    public final void setRecorder(ReplayRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Switches rewinding off, for worlds whose state is too large to capture
+     * every tick. Must be called before the simulation is started.
+     */
+
+    public final void disableRewind() {
+        rewindEnabled = false;
+        rewindBuffer.clear();
+    }
+
+    /**
+     * Stops the simulation thread, waits for it to finish its tick and closes
+     * the recorder, if there is one.
+     */
+
+    public final void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeRecorder();
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private final void run() {
+        gameLoop.resetClock(System.nanoTime());
+        while (running) {
+            frameTime = System.nanoTime();
+            gameLoop.advance(frameTime);
+            LockSupport.parkNanos(gameLoop.getNanosUntilNextTick());
+        }
+    }
+
+    // A replay cannot hold a jump back in time, so rewinding ends it first
+    private final void rewind() {
+        if (rewindBuffer.getLastTick() < 0) {
+            return;
+        }
+        if (recorder != null) {
+            System.err.println("Stopped recording the replay at the rewind");
+            closeRecorder();
+        }
+        long tick = Math.max(rewindBuffer.getFirstTick(), rewindBuffer.getLastTick() - rewindStep);
+        rewindBuffer.restore(world, tick);
+    }
+
+    // A failed write ends the recording but not the game
+    private final void record(int commands) {
+        if (recorder == null || world.isGameOver()) {
+            return;
+        }
+        try {
+            recorder.record(commands);
+        } catch (IOException e) {
+            System.err.println("Stopped recording the replay: " + e.getMessage());
+            closeRecorder();
+        }
+    }
+
+    private final void closeRecorder() {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            System.err.println("Could not finish the replay: " + e.getMessage());
+        }
+        recorder = null;
+    }
+
+    // Captures the world if it has ticked since the last snapshot
+    private final void publish(long tickTime) {
+        if (world.getTickCount() == publishedTick) {
+            return;
+        }
+        long start = profiler.begin();
+        snapshots.getWriteBuffer().capture(world, tickTime);
+        snapshots.publish();
+        profiler.end(TickProfiler.SNAPSHOT, start, world.getTickCount());
+        publishedTick = world.getTickCount();
+    }
+
+    /**
+     *
+     * @return The profiler timing this simulation; the display records its
+     *         RENDER phase.
+     */
+
+    public final TickProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     *
+     * @return The queue that player commands for this world go through.
+     */
+
+    public final InputRing getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the newest snapshot of the world. Only one thread, the render
+     * thread, may call this.
+     *
+     * @return A snapshot that stays unchanged until the next call.
+     */
+
+    public final WorldSnapshot getSnapshot() {
+        return snapshots.getReadBuffer();
+    }
+
+    /**
+     * Works out how far a frame drawn now lies between the tick a snapshot
+     * shows and the next one.
+     *
+     * @param snapshot The snapshot being drawn.
+     * @param now      The current time in nanoseconds.
+     * @return The fraction of a tick, from 0 to 1.
+     */
+
+    public final double getInterpolation(WorldSnapshot snapshot, long now) {
+        double alpha = (now - snapshot.getTickNanos()) / (double) gameLoop.getTickNanos();
+        return Math.max(0, Math.min(1, alpha));
+    }
+
+    /**
+     *
+     * @return The length of one tick in nanoseconds.
+     */
+
+    public final long getTickNanos() {
+        return gameLoop.getTickNanos();
+    }
+}
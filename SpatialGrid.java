@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+/**
+ * A uniform grid broadphase over the playing field.
+ * Entities are inserted once per tick as integer ids together with their
+ * bounding box, and queries return the ids whose cells overlap a given box.
+ * Only these candidates need to be passed to the narrow-phase intersects
+ * methods, so the cost of a query depends on local density rather than on the
+ * total number of entities.
+ * Boxes outside the field are clamped into the border cells.
+ */
+
+public final class SpatialGrid {
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+
+    // Head of the singly linked entry list for each cell, -1 when empty
+    private final int[] cellHeads;
+
+    // Entry storage, shared by all cells
+    private int[] entryIds;
+    private int[] entryNext;
+    private int entryCount;
+
+    // Per-id stamp used to report each id once per query
+    private int[] marks;
+    private int stamp;
+
+    private int[] results;
+
+    /**
+     * Constructs an empty grid covering the given field.
+     *
+     * @param width    The width of the field in pixels.
+     * @param height   The height of the field in pixels.
+     * @param cellSize The edge length of one square cell in pixels.
+     */
+
+    public SpatialGrid(int width, int height, int cellSize) {
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        this.cellHeads = new int[columns * rows];
+        this.entryIds = new int[64];
+        this.entryNext = new int[64];
+        this.marks = new int[64];
+        this.results = new int[64];
+        Arrays.fill(cellHeads, -1);
+    }
+
+    /**
+     * Removes every entity from the grid. Storage is kept for the next tick.
+     */
+
+    public final void clear() {
+        Arrays.fill(cellHeads, -1);
+        entryCount = 0;
+    }
+
+    /**
+     * Inserts an entity into every cell its bounding box overlaps.
+     *
+     * @param id     A non-negative id the caller can map back to the entity.
+     * @param x      The x-coordinate of the bounding box.
+     * @param y      The y-coordinate of the bounding box.
+     * @param width  The width of the bounding box.
+     * @param height The height of the bounding box.
+     */
+
+    public final void insert(int id, int x, int y, int width, int height) {
+        if (id >= marks.length) {
+            marks = Arrays.copyOf(marks, Math.max(id + 1, marks.length * 2));
+        }
+        int minColumn = column(x);
+        int maxColumn = column(x + width - 1);
+        int minRow = row(y);
+        int maxRow = row(y + height - 1);
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minColumn; c <= maxColumn; c++) {
+                if (entryCount == entryIds.length) {
+                    entryIds = Arrays.copyOf(entryIds, entryCount * 2);
+                    entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+                }
+                int cell = r * columns + c;
+                entryIds[entryCount] = id;
+                entryNext[entryCount] = cellHeads[cell];
+                cellHeads[cell] = entryCount;
+                entryCount++;
+            }
+        }
+    }
+
+    /**
+     * Collects the ids of all entities sharing a cell with the given box.
+     * Each id is reported once. The ids are read back with
+     * {@link #candidate(int)} and stay valid until the next query.
+     *
+     * @param x      The x-coordinate of the query box.
+     * @param y      The y-coordinate of the query box.
+     * @param width  The width of the query box.
+     * @param height The height of the query box.
+     * @return The number of candidate ids found.
+     */
+
+    public final int query(int x, int y, int width, int height) {
+        if (++stamp == 0) {
+            // Stamp wrapped around, so old marks could collide with new ones
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+        int count = 0;
+        int minColumn = column(x);
+        int maxColumn = column(x + width - 1);
+        int minRow = row(y);
+        int maxRow = row(y + height - 1);
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minColumn; c <= maxColumn; c++) {
+                for (int e = cellHeads[r * columns + c]; e != -1; e = entryNext[e]) {
+                    int id = entryIds[e];
+                    if (marks[id] != stamp) {
+                        marks[id] = stamp;
+                        if (count == results.length) {
+                            results = Arrays.copyOf(results, count * 2);
+                        }
+                        results[count++] = id;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @param index The position in the result of the last query.
+     * @return The id of the candidate at that position.
+     */
+
+    public final int candidate(int index) {
+        return results[index];
+    }
+
+    private final int column(int x) {
+        return Math.min(columns - 1, Math.max(0, Math.floorDiv(x, cellSize)));
+    }
+
+    private final int row(int y) {
+        return Math.min(rows - 1, Math.max(0, Math.floorDiv(y, cellSize)));
+    }
+}
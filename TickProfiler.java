@@ -0,0 +1,322 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Timespan;
+
+/**
+ * Times the phases of a simulation tick and of drawing a frame.
+ * World.step marks the end of each of its phases with {@link #lap}, the
+ * SimulationThread times rewinding and publishing, and the display times
+ * rendering. Every phase has a LatencyHistogram, which the ProfilerOverlay
+ * shows as p50, p99 and max. The same measurements are emitted as JFR
+ * events, one per phase and one per tick with the entity counts and the
+ * bytes the simulation thread allocated during the tick, whenever a flight
+ * recording with these events enabled is running.
+ * When neither the overlay nor JFR wants the data, {@link #beginTick} and
+ * {@link #begin} return 0, every later call returns straight away, and the
+ * clock is never read. Events are only created while a flight recording is
+ * running, so outside of one the profiler never allocates.
+ * All phases except RENDER are recorded by the simulation thread; RENDER is
+ * recorded by the thread that draws.
+ */
+
+public final class TickProfiler {
+    public static final int INPUT = 0;
+    public static final int OBSTACLES = 1;
+    public static final int ALIENS = 2;
+    public static final int HITS = 3;
+    public static final int BULLETS = 4;
+    public static final int TICK = 5;
+    public static final int REWIND = 6;
+    public static final int SNAPSHOT = 7;
+    public static final int RENDER = 8;
+    public static final int PHASE_COUNT = 9;
+
+    private static final String[] PHASE_NAMES = { "input", "obstacles", "aliens", "hits", "bullets", "tick",
+            "rewind", "snapshot", "render" };
+
+    /**
+     * The time one phase took.
+     */
+    @Name("spaceinvaders.Phase")
+    @Label("Phase")
+    @Category("Space Invaders")
+    static final class PhaseEvent extends Event {
+        @Label("Tick")
+        long tick;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    /**
+     * One simulation tick, with the size of the world after it.
+     */
+    @Name("spaceinvaders.Tick")
+    @Label("Tick")
+    @Category("Space Invaders")
+    static final class TickEvent extends Event {
+        @Label("Tick")
+        long tick;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+
+        @Label("Aliens")
+        int aliens;
+
+        @Label("Player Bullets")
+        int playerBullets;
+
+        @Label("Alien Bullets")
+        int alienBullets;
+
+        @Label("Obstacles")
+        int obstacles;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    // Whether any flight recording is running, kept up to date by JFR
+    private static volatile boolean recording;
+
+    static {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                updateRecording();
+            }
+
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                updateRecording();
+            }
+        });
+        if (FlightRecorder.isInitialized()) {
+            updateRecording();
+        }
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASE_COUNT];
+    private volatile boolean enabled;
+    private volatile boolean clearRequested;
+
+    // Allocation counter of the simulation thread, or null if unsupported
+    private final com.sun.management.ThreadMXBean threads;
+
+    // Written by the simulation thread only
+    private long tick;
+    private long allocatedAtStart;
+    private volatile long lastAllocated = -1;
+
+    private static final void updateRecording() {
+        boolean running = false;
+        for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+            running |= r.getState() == RecordingState.RUNNING;
+        }
+        recording = running;
+    }
+
+    /**
+     * Constructs a profiler that is switched off.
+     */
+
+    public TickProfiler() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            this.threads = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            this.threads = null;
+        }
+    }
+
+    /**
+     * Switches the histograms on or off. Switching them on starts them
+     * afresh. Must be called on the thread that records RENDER.
+     *
+     * @param enabled true to collect histograms.
+     */
+
+    public final void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            reset();
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * Empties every histogram. The simulation phases are emptied by the
+     * simulation thread before its next tick. Must be called on the thread
+     * that records RENDER.
+     */
+
+    public final void reset() {
+        histograms[RENDER].clear();
+        clearRequested = true;
+    }
+
+    public final boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing a simulation tick. Simulation thread only.
+     *
+     * @param tick The tick about to be simulated.
+     * @return The start time to pass to the first lap, or 0 if the tick is
+     *         not timed.
+     */
+
+    public final long beginTick(long tick) {
+        if (clearRequested) {
+            clearRequested = false;
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                if (i != RENDER) {
+                    histograms[i].clear();
+                }
+            }
+        }
+        long start = begin();
+        if (start != 0) {
+            this.tick = tick;
+            allocatedAtStart = threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+        }
+        return start;
+    }
+
+    /**
+     * Ends a phase of the current tick. Simulation thread only.
+     *
+     * @param phase The phase that ended.
+     * @param start The time the phase started, or 0 if the tick is not timed.
+     * @return The time the next phase starts, or 0 if the tick is not timed.
+     */
+
+    public final long lap(int phase, long start) {
+        if (start == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        record(phase, tick, now - start);
+        return now;
+    }
+
+    /**
+     * Ends the current tick. Simulation thread only.
+     *
+     * @param start The time the tick started, or 0 if it is not timed.
+     * @param world The world that was stepped.
+     */
+
+    public final void endTick(long start, World world) {
+        if (start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        histograms[TICK].record(nanos);
+        long allocated = threads != null ? threads.getCurrentThreadAllocatedBytes() - allocatedAtStart : -1;
+        lastAllocated = allocated;
+        if (!recording) {
+            return;
+        }
+
+        TickEvent event = new TickEvent();
+        if (event.isEnabled()) {
+            event.tick = tick;
+            event.nanos = nanos;
+            event.aliens = world.getFormation().getAliveCount();
+            event.playerBullets = world.getPlayerBullets().size();
+            event.alienBullets = world.getAlienBullets().size();
+            event.obstacles = world.getObstacles().size();
+            event.allocated = allocated;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a phase outside of World.step.
+     *
+     * @return The start time, or 0 if the phase is not timed.
+     */
+
+    public final long begin() {
+        if (enabled || recording && (new PhaseEvent().isEnabled() || new TickEvent().isEnabled())) {
+            return System.nanoTime();
+        }
+        return 0;
+    }
+
+    /**
+     * Ends a phase outside of World.step. Each phase must always be recorded
+     * by the same thread.
+     *
+     * @param phase The phase that ended.
+     * @param start The time returned by begin.
+     * @param tick  The tick the phase belongs to.
+     */
+
+    public final void end(int phase, long start, long tick) {
+        if (start == 0) {
+            return;
+        }
+        record(phase, tick, System.nanoTime() - start);
+    }
+
+    private final void record(int phase, long tick, long nanos) {
+        histograms[phase].record(nanos);
+        if (!recording) {
+            return;
+        }
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled()) {
+            event.tick = tick;
+            event.phase = PHASE_NAMES[phase];
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     *
+     * @param phase One of the phase constants.
+     * @return The durations recorded for the phase.
+     */
+
+    public final LatencyHistogram getHistogram(int phase) {
+        return histograms[phase];
+    }
+
+    public static final String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     *
+     * @return The bytes the simulation thread allocated during the last
+     *         timed tick, or -1 if unknown.
+     */
+
+    public final long getLastAllocated() {
+        return lastAllocated;
+    }
+}
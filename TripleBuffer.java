@@ -0,0 +1,75 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hands the latest of a stream of values from one writer thread to one
+ * reader thread without locking and without either side waiting.
+ * Three buffers are in use at any time: the writer fills its back buffer, the
+ * reader reads its front buffer, and the third sits in the middle holding the
+ * most recently published value. Publishing swaps the back buffer with the
+ * middle one, and the reader swaps its front buffer with the middle one when
+ * a newer value is there, so each side only ever touches a buffer the other
+ * one cannot. A reader that falls behind skips straight to the newest value;
+ * a writer that falls behind is never blocked by the reader.
+ *
+ * @param <T> The type of the buffers.
+ */
+
+public final class TripleBuffer<T> {
+    // The middle index lives in the low bits; FRESH marks unread data there
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final Object[] buffers;
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    // Owned by the writer and the reader respectively
+    private int back = 0;
+    private int front = 2;
+
+    /**
+     * Constructs a triple buffer.
+     *
+     * @param factory Creates each of the three buffers.
+     */
+
+    public TripleBuffer(Supplier<T> factory) {
+        this.buffers = new Object[] { factory.get(), factory.get(), factory.get() };
+    }
+
+    /**
+     * Returns the buffer the writer may fill. Writer thread only.
+     *
+     * @return The back buffer.
+     */
+
+    @SuppressWarnings("unchecked")
+    public final T getWriteBuffer() {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Publishes the back buffer as the newest value and gives the writer a
+     * new back buffer. Writer thread only.
+     */
+
+    public final void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Returns the newest published value. The value stays valid, and
+     * unchanged, until the next call. Reader thread only.
+     *
+     * @return The front buffer, which holds the initial contents of a buffer
+     *         if nothing has been published yet.
+     */
+
+    @SuppressWarnings("unchecked")
+    public final T getReadBuffer() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return (T) buffers[front];
+    }
+}
@@ -0,0 +1,656 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the complete state of one game and advances it one tick at a time.
+ * The world owns the player, aliens, bullets, obstacles and score, and knows
+ * nothing about windows or painting, so it can be stepped headless and as
+ * fast as the caller likes. Display code reads it through the getters and
+ * forwards player actions to it.
+ * A world is deterministic: every random choice comes from one Random seeded
+ * when the world is created, and time is counted in ticks rather than read
+ * from the system clock. Two worlds with the same seed and formation size that
+ * are given the same input on every tick therefore play out identically,
+ * which is what makes replays possible.
+ * The whole state can also be written to a buffer and read back, which is how
+ * a RewindBuffer returns a world to an earlier tick.
+ */
+
+public final class World {
+    public static final int WIDTH = 800;
+    public static final int HEIGHT = 600;
+
+    // Game time that passes in one tick
+    public static final int TICK_MILLIS = 10;
+
+    // Formation layout
+    private static final int FORMATION_ORIGIN = 50;
+    private static final int FORMATION_SPACING_X = 100;
+    private static final int FORMATION_SPACING_Y = 50;
+
+    // Height of the band at the top of the field that a new formation fills
+    private static final int FORMATION_BAND_HEIGHT = 250;
+
+    private Player player;
+    private Formation formation;
+    private FireScheduler fireScheduler;
+    private final GameConfig config;
+    private final int formationRows;
+    private final int formationColumns;
+    private final EntityStore entities = new EntityStore();
+    private final BulletStore bullets;
+    private final BulletStore alienBullets;
+    private final List<Obstacle> obstacles;
+    private final GameState gameState;
+    private final long seed;
+    private final WorldRandom random;
+    private int nextAlienId;
+    private int wave;
+    private boolean gameOver;
+    private long tickCount;
+
+    // Incremented whenever obstacles are removed or replaced
+    private int obstacleEpoch;
+
+    // Most player bullets that can be in flight at once; the alien bullet
+    // capacity is part of the GameConfig
+    private static final int PLAYER_BULLET_CAPACITY = 512;
+
+    // Broadphase grid for obstacles, rebuilt at the start of every step
+    private static final int GRID_CELL_SIZE = 50;
+    private final SpatialGrid obstacleGrid = new SpatialGrid(WIDTH, HEIGHT, GRID_CELL_SIZE);
+
+    // Formation slots near an obstacle, a bullet or due to fire, reused
+    // every tick
+    private int[] candidateSlots = new int[0];
+
+    // Finds what each bullet hits along its move
+    private final BulletSweep sweep = new BulletSweep();
+
+    // Times the phases of step, or null
+    private TickProfiler profiler;
+
+    /**
+     * Constructs a world with the first wave in place.
+     *
+     * @param gameState The score and lives this world reports to.
+     */
+
+    public World(GameState gameState) {
+        this(gameState, GameConfig.DEFAULT, System.nanoTime());
+    }
+
+    /**
+     * Constructs a world with the first wave in place that plays out the same
+     * way every time it is given the same seed and input.
+     *
+     * @param gameState The score and lives this world reports to.
+     * @param seed      The seed of every random choice in the world.
+     */
+
+    public World(GameState gameState, long seed) {
+        this(gameState, GameConfig.DEFAULT, seed);
+    }
+
+    /**
+     * Constructs a world whose waves have the given formation size.
+     * Larger formations are packed more tightly to fit the field.
+     *
+     * @param gameState        The score and lives this world reports to.
+     * @param formationRows    The number of rows of aliens in each wave.
+     * @param formationColumns The number of aliens in each row.
+     */
+
+    public World(GameState gameState, int formationRows, int formationColumns) {
+        this(gameState, formationRows, formationColumns, System.nanoTime());
+    }
+
+    /**
+     * Constructs a world that plays out the same way every time it is given
+     * the same seed and input.
+     *
+     * @param gameState        The score and lives this world reports to.
+     * @param formationRows    The number of rows of aliens in each wave.
+     * @param formationColumns The number of aliens in each row.
+     * @param seed             The seed of every random choice in the world.
+     */
+
+    public World(GameState gameState, int formationRows, int formationColumns, long seed) {
+        this(gameState, GameConfig.DEFAULT.withFormation(formationRows, formationColumns), seed);
+    }
+
+    /**
+     * Constructs a world that plays by a given balance, and out the same way
+     * every time it is given the same seed and input.
+     *
+     * @param gameState The score and lives this world reports to.
+     * @param config    The formation size, fire rate, bullet speed and blast
+     *                  size of the world.
+     * @param seed      The seed of every random choice in the world.
+     */
+
+    public World(GameState gameState, GameConfig config, long seed) {
+        this.gameState = gameState;
+        this.config = config;
+        this.seed = seed;
+        this.random = new WorldRandom(seed);
+        this.formationRows = config.getFormationRows();
+        this.formationColumns = config.getFormationColumns();
+        this.player = GameObjectFactory.createPlayer(400, 500);
+        this.bullets = new BulletStore(entities, PLAYER_BULLET_CAPACITY);
+        this.alienBullets = new BulletStore(entities, config.getAlienBulletCapacity());
+        this.obstacles = new ArrayList<>();
+        spawnWave();
+    }
+
+    /**
+     * Advances the game by one tick, including the movement of aliens, bullets,
+     * and collision checks. Does nothing once the game is over.
+     */
+
+    public final void step() {
+        step(0);
+    }
+
+    /**
+     * Applies one tick's worth of player input and then advances the game by
+     * one tick. Does nothing once the game is over.
+     *
+     * @param input The player commands for this tick, a combination of the
+     *              PlayerCommands bits.
+     */
+
+    public final void step(int input) {
+        if (gameOver) {
+            return;
+        }
+        long start = profiler != null ? profiler.beginTick(tickCount + 1) : 0;
+        update(input, start);
+        if (start != 0) {
+            profiler.endTick(start, this);
+        }
+    }
+
+    // The phases of a tick; returns early once the game is over
+    private final void update(int input, long start) {
+        long time = start;
+        PlayerCommands.apply(this, input);
+        tickCount++;
+        time = lap(TickProfiler.INPUT, time);
+
+        // Broadphase: bucket the obstacles once per tick
+        rebuildBroadphase();
+
+        // Check for collision obstacle and alien; the alien dies and erases
+        // the cells it touched
+        for (int i = 0; i < obstacles.size(); i++) {
+            Obstacle obstacle = obstacles.get(i);
+            int candidates = formation.collectOverlapping(obstacle.getX(), obstacle.getY(),
+                    Obstacle.WIDTH, Obstacle.HEIGHT, candidateSlots);
+            for (int c = 0; c < candidates; c++) {
+                Alien alien = formation.getAlien(candidateSlots[c]);
+                if (obstacle.intersects(alien)) {
+                    obstacle.erode(alien.getX(), alien.getY(), Alien.ALIEN_SIZE, Alien.ALIEN_SIZE);
+                    formation.kill(candidateSlots[c]);
+                }
+            }
+        }
+        time = lap(TickProfiler.OBSTACLES, time);
+
+        // Move the formation, stepping down at the edges
+        formation.update(WIDTH, config.getFormationDrop());
+
+        // Fire the live aliens whose shot is due and schedule their next one
+        int due = fireScheduler.drain(tickCount, candidateSlots);
+        for (int i = 0; i < due; i++) {
+            int slot = candidateSlots[i];
+            if (formation.isAlive(slot)) {
+                formation.getAlien(slot).fire(alienBullets);
+                fireScheduler.schedule(slot, tickCount + nextFireDelay());
+            }
+        }
+        time = lap(TickProfiler.ALIENS, time);
+
+        // Check for collision with alien and player
+        if (!config.isPlayerInvincible() && formation.findHit(player.getX(), player.getY(), Player.PLAYER_SIZE, Player.PLAYER_SIZE) != -1) {
+            gameOver = true;
+            return;
+        }
+
+        // Sweep the player bullets along this tick's move; each stops at the
+        // first shield or alien on its path
+        int speed = config.getBulletSpeed();
+        for (int i = bullets.size() - 1; i >= 0; i--) {
+            sweep.begin(bullets.getX(i), bullets.getY(i), bullets.getDirection(i) * speed);
+            sweep.testObstacles(obstacles, obstacleGrid);
+            sweep.testFormation(formation, candidateSlots);
+            if (sweep.getKind() == BulletSweep.OBSTACLE) {
+                obstacles.get(sweep.getTarget()).blast(bullets.getX(i), Bullet.BULLET_SIZE, sweep.getRow(),
+                        bullets.getDirection(i), config.getBlastRadius(), config.getBlastDepth());
+                bullets.remove(i);
+            } else if (sweep.getKind() == BulletSweep.ALIEN) {
+                formation.kill(sweep.getTarget());
+                bullets.remove(i);
+                gameState.increaseScore(10);
+            }
+        }
+        bullets.update(0, Integer.MAX_VALUE, speed);
+        time = lap(TickProfiler.HITS, time);
+
+        // Sweep the alien bullets, which keep flying after their shooter
+        // dies, against the shields and the player
+        for (int i = alienBullets.size() - 1; i >= 0; i--) {
+            sweep.begin(alienBullets.getX(i), alienBullets.getY(i), alienBullets.getDirection(i) * speed);
+            sweep.testObstacles(obstacles, obstacleGrid);
+            if (!config.isPlayerInvincible()) {
+                sweep.testPlayer(player);
+            }
+            if (sweep.getKind() == BulletSweep.OBSTACLE) {
+                obstacles.get(sweep.getTarget()).blast(alienBullets.getX(i), Bullet.BULLET_SIZE, sweep.getRow(),
+                        alienBullets.getDirection(i), config.getBlastRadius(), config.getBlastDepth());
+                alienBullets.remove(i);
+            } else if (sweep.getKind() == BulletSweep.PLAYER) {
+                alienBullets.remove(i);
+                // Handle collision with player (game over or life lost)
+                gameState.decreaseLives(); // Reduce a life when hit
+                if (gameState.getLives() == 0) {
+                    gameOver = true;
+                    return;
+                }
+                // Reset player position and remove bullets on collision
+                player = GameObjectFactory.createPlayer(400, 500);
+                bullets.clear();
+            }
+        }
+        alienBullets.update(Integer.MIN_VALUE, HEIGHT, speed);
+        removeDestroyedObstacles();
+
+        if (formation.getAliveCount() == 0) {
+            // Reset the game
+            resetGame();
+        }
+        lap(TickProfiler.BULLETS, time);
+    }
+
+    private final long lap(int phase, long start) {
+        return start == 0 ? 0 : profiler.lap(phase, start);
+    }
+
+    /**
+     * Times the phases of every later step.
+     *
+     * @param profiler The profiler to report to, or null to stop timing.
+     */
+
+    public final void setProfiler(TickProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Moves the player one step to the left.
+     */
+
+    public final void movePlayerLeft() {
+        player.moveLeft();
+    }
+
+    /**
+     * Moves the player one step to the right.
+     */
+
+    public final void movePlayerRight() {
+        player.moveRight();
+    }
+
+    /**
+     * Fires a bullet upwards from the player's position.
+     */
+
+    public final void firePlayerBullet() {
+        bullets.spawn(player.getX() + 20, player.getY(), -1);
+    }
+
+    /**
+     * Rebuilds the obstacle grid from the current obstacle positions.
+     */
+
+    private final void rebuildBroadphase() {
+        obstacleGrid.clear();
+        for (int i = 0; i < obstacles.size(); i++) {
+            Obstacle obstacle = obstacles.get(i);
+            obstacleGrid.insert(i, obstacle.getX(), obstacle.getY(), Obstacle.WIDTH, Obstacle.HEIGHT);
+        }
+    }
+
+    /**
+     * Drops fully eroded obstacles so they are no longer collision tested.
+     * The grid refers to obstacles by index, so this runs after its last use
+     * in the tick.
+     */
+
+    private final void removeDestroyedObstacles() {
+        int kept = 0;
+        for (int i = 0; i < obstacles.size(); i++) {
+            Obstacle obstacle = obstacles.get(i);
+            if (!obstacle.isDestroyed()) {
+                obstacles.set(kept++, obstacle);
+            }
+        }
+        if (kept < obstacles.size()) {
+            // Removing from the end shifts nothing and needs no sublist view
+            for (int i = obstacles.size() - 1; i >= kept; i--) {
+                obstacles.remove(i);
+            }
+            obstacleEpoch++;
+        }
+    }
+
+    /**
+     * Resets the field for a new wave after the player clears the aliens.
+     * Package-private so Benchmark can check that resets leave the tick rate
+     * alone.
+     */
+
+    final void resetGame() {
+        // Reset player, bullets, aliens and obstacles
+        player = GameObjectFactory.createPlayer(400, 500);
+        bullets.clear();
+        alienBullets.clear();
+        obstacles.clear();
+        obstacleEpoch++;
+        spawnWave();
+        wave++;
+    }
+
+    private final void spawnWave() {
+        createFormation(nextAlienId);
+        nextAlienId += formation.getSlotCount();
+        for (int slot = 0; slot < formation.getSlotCount(); slot++) {
+            fireScheduler.schedule(slot, tickCount + nextFireDelay());
+        }
+
+        // Initialise obstacles
+        for (int i = 0; i < config.getObstacleCount(); i++) {
+            obstacles.add(GameObjectFactory.createObstacle(random));
+        }
+    }
+
+    private final void createFormation(int firstId) {
+        int spacingX = Math.min(FORMATION_SPACING_X, Math.max(1, (WIDTH - 2 * FORMATION_ORIGIN) / formationColumns));
+        int spacingY = Math.min(FORMATION_SPACING_Y, Math.max(1, FORMATION_BAND_HEIGHT / formationRows));
+        formation = GameObjectFactory.createFormation(formationRows, formationColumns,
+                FORMATION_ORIGIN, FORMATION_ORIGIN, spacingX, spacingY, firstId);
+        fireScheduler = new FireScheduler(formation.getSlotCount(),
+                config.getAlienFireDelayTicks() + config.getAlienFireJitterTicks());
+        if (candidateSlots.length < formation.getSlotCount()) {
+            candidateSlots = new int[formation.getSlotCount()];
+        }
+    }
+
+    // Ticks from one shot of an alien to its next
+    private final int nextFireDelay() {
+        return config.getAlienFireDelayTicks() + random.nextInt(config.getAlienFireJitterTicks());
+    }
+
+    /**
+     *
+     * @return The number of bytes writeState currently writes.
+     */
+
+    public final int getStateSize() {
+        return 37 + Player.STATE_SIZE + formation.getStateSize() + fireScheduler.getStateSize() + bullets.getStateSize()
+                + alienBullets.getStateSize() + obstacles.size() * Obstacle.STATE_SIZE;
+    }
+
+    /**
+     *
+     * @return The most bytes writeState can write in a game of this balance:
+     *         with every bullet slot live and every shield of a wave
+     *         standing.
+     */
+
+    public final int getMaxStateSize() {
+        return 37 + Player.STATE_SIZE + formation.getStateSize() + fireScheduler.getStateSize()
+                + bullets.getMaxStateSize() + alienBullets.getMaxStateSize()
+                + config.getObstacleCount() * Obstacle.STATE_SIZE;
+    }
+
+    /**
+     * Writes everything that decides how the game plays on from here: the
+     * tick, wave, score and lives, the state of the random generator, and the
+     * player, formation, scheduled alien shots, bullets and obstacles. Values are written at the same
+     * offsets from tick to tick as long as the numbers of bullets and
+     * obstacles do not change, so consecutive states differ in few bytes.
+     *
+     * @param buffer The buffer to write to, with at least getStateSize bytes
+     *               remaining.
+     */
+
+    public final void writeState(ByteBuffer buffer) {
+        buffer.putLong(tickCount);
+        buffer.putInt(wave);
+        buffer.put(gameOver ? (byte) 1 : (byte) 0);
+        buffer.putInt(nextAlienId);
+        buffer.putLong(random.getState());
+        buffer.putInt(gameState.getScore());
+        buffer.putInt(gameState.getLives());
+        player.writeState(buffer);
+        formation.writeState(buffer);
+        fireScheduler.writeState(buffer);
+        buffer.putInt(obstacles.size());
+        for (int i = 0; i < obstacles.size(); i++) {
+            obstacles.get(i).writeState(buffer);
+        }
+        bullets.writeState(buffer);
+        alienBullets.writeState(buffer);
+    }
+
+    /**
+     * Returns the world to a state written by writeState of a world with the
+     * same formation size. The game state is updated, and the obstacle epoch
+     * changes so cached images of the obstacles are redrawn.
+     *
+     * @param buffer The buffer to read from.
+     */
+
+    public final void readState(ByteBuffer buffer) {
+        tickCount = buffer.getLong();
+        wave = buffer.getInt();
+        gameOver = buffer.get() != 0;
+        nextAlienId = buffer.getInt();
+        random.setState(buffer.getLong());
+        int score = buffer.getInt();
+        int lives = buffer.getInt();
+        gameState.restore(score, lives);
+        player.readState(buffer);
+
+        // Aliens keep their ids, so the formation is only replaced across waves
+        int firstId = nextAlienId - formation.getSlotCount();
+        if (formation.getAlien(0).getId() != firstId) {
+            createFormation(firstId);
+        }
+        formation.readState(buffer);
+        fireScheduler.readState(buffer);
+
+        int obstacleCount = buffer.getInt();
+        while (obstacles.size() > obstacleCount) {
+            obstacles.remove(obstacles.size() - 1);
+        }
+        while (obstacles.size() < obstacleCount) {
+            obstacles.add(new Obstacle(0));
+        }
+        for (int i = 0; i < obstacleCount; i++) {
+            obstacles.get(i).readState(buffer);
+        }
+        obstacleEpoch++;
+        bullets.readState(buffer);
+        alienBullets.readState(buffer);
+    }
+
+    public final Player getPlayer() {
+        return player;
+    }
+
+    /**
+     *
+     * @return The formation of the current wave.
+     */
+
+    public final Formation getFormation() {
+        return formation;
+    }
+
+    /**
+     *
+     * @return The bullets fired by the player that are still in flight.
+     */
+
+    public final BulletStore getPlayerBullets() {
+        return bullets;
+    }
+
+    /**
+     *
+     * @return The bullets fired by all aliens that are still in flight, each
+     *         tagged with the id of its shooter.
+     */
+
+    public final BulletStore getAlienBullets() {
+        return alienBullets;
+    }
+
+    /**
+     *
+     * @return The store holding both lanes of bullets as archetypes.
+     */
+
+    public final EntityStore getEntities() {
+        return entities;
+    }
+
+    public final List<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     *
+     * @return A counter that changes whenever an obstacle is removed or the
+     *         obstacles are replaced. Together with the obstacle versions it
+     *         tells whether any obstacle changed.
+     */
+
+    public final int getObstacleEpoch() {
+        return obstacleEpoch;
+    }
+
+    public final GameState getGameState() {
+        return gameState;
+    }
+
+    /**
+     *
+     * @return The number of waves cleared since the world was created.
+     */
+
+    public final int getWave() {
+        return wave;
+    }
+
+    /**
+     *
+     * @return true once the player has been hit by an alien or run out of lives.
+     */
+
+    public final boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     *
+     * @return The number of steps taken since the world was created.
+     */
+
+    public final long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     *
+     * @return The seed of every random choice in the world.
+     */
+
+    public final long getSeed() {
+        return seed;
+    }
+
+    /**
+     *
+     * @return The balance this world plays by.
+     */
+
+    public final GameConfig getConfig() {
+        return config;
+    }
+
+    public final int getFormationRows() {
+        return formationRows;
+    }
+
+    public final int getFormationColumns() {
+        return formationColumns;
+    }
+
+    /**
+     * Hashes everything that decides how the game plays on from here: the
+     * tick, score, lives and wave, and the positions of the player, every
+     * live alien, every bullet and every obstacle cell. Two deterministic
+     * runs that agree on this hash have reached the same state.
+     *
+     * @return A 64-bit hash of the world state.
+     */
+
+    public final long getStateHash() {
+        long hash = mix(0, tickCount);
+        hash = mix(hash, gameState.getScore());
+        hash = mix(hash, gameState.getLives());
+        hash = mix(hash, wave);
+        hash = mix(hash, gameOver ? 1 : 0);
+        hash = mix(hash, player.getX());
+        hash = mix(hash, player.getY());
+        hash = mix(hash, formation.getDirection());
+        for (int slot = formation.nextAlive(0); slot != -1; slot = formation.nextAlive(slot + 1)) {
+            hash = mix(hash, slot);
+            hash = mix(hash, formation.getSlotX(slot));
+            hash = mix(hash, formation.getSlotY(slot));
+        }
+        hash = mix(hash, hashBullets(bullets));
+        hash = mix(hash, hashBullets(alienBullets));
+        long[] cells = new long[Obstacle.CELL_ROWS];
+        for (int i = 0; i < obstacles.size(); i++) {
+            Obstacle obstacle = obstacles.get(i);
+            hash = mix(hash, obstacle.getX());
+            obstacle.copyCells(cells, 0);
+            for (int row = 0; row < cells.length; row++) {
+                hash = mix(hash, cells[row]);
+            }
+        }
+        return hash;
+    }
+
+    private static final long hashBullets(BulletStore store) {
+        long hash = store.size();
+        for (int i = 0; i < store.size(); i++) {
+            hash = mix(hash, store.getX(i));
+            hash = mix(hash, store.getY(i));
+            hash = mix(hash, store.getDirection(i));
+            hash = mix(hash, store.getOwner(i));
+        }
+        return hash;
+    }
+
+    // Folds a value into a hash with a multiply and rotate
+    private static final long mix(long hash, long value) {
+        return Long.rotateLeft((hash ^ value) * 0x9E3779B97F4A7C15L, 29);
+    }
+}
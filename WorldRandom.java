@@ -0,0 +1,61 @@
+import java.util.Random;
+
+/**
+ * The random number generator of a world, whose state can be read and set.
+ * It produces exactly the same numbers as a {@link Random} with the same
+ * seed, since it uses the same linear congruential generator. Unlike Random,
+ * it exposes the generator's state, so a saved world can be restored and then
+ * continue with the numbers it would have drawn. The cached second value of
+ * nextGaussian is not part of that state; worlds do not use it.
+ */
+
+public final class WorldRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // Set by the Random constructor through setSeed, so it has no initialiser
+    private long state;
+
+    /**
+     * Constructs a generator.
+     *
+     * @param seed The seed, used as by Random.
+     */
+
+    public WorldRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public final void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected final int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     *
+     * @return The 48-bit state of the generator.
+     */
+
+    public final long getState() {
+        return state;
+    }
+
+    /**
+     * Restores a state returned by getState.
+     *
+     * @param state The state to continue from.
+     */
+
+    public final void setState(long state) {
+        this.state = state & MASK;
+    }
+}
@@ -0,0 +1,245 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A copy of everything needed to draw one frame of a world.
+ * The simulation thread captures the world into a snapshot after it has
+ * stepped, and then hands the snapshot to the render thread, which never
+ * touches the live world. A snapshot is only written while the simulation
+ * owns it and is never changed after it has been published, so the renderer
+ * can read it without locking.
+ * Everything is held in primitive arrays that grow as needed and are reused
+ * from capture to capture, so capturing does not allocate once it has warmed
+ * up.
+ */
+
+public final class WorldSnapshot {
+    /**
+     * The bullets of one lane, as captured from a {@link BulletStore}.
+     */
+    public static final class BulletLane {
+        private int[] xs = new int[0];
+        private int[] ys = new int[0];
+        private int[] directions = new int[0];
+        private int size;
+
+        private final void capture(BulletStore bullets) {
+            size = bullets.size();
+            if (xs.length < size) {
+                xs = new int[bullets.capacity()];
+                ys = new int[bullets.capacity()];
+                directions = new int[bullets.capacity()];
+            }
+            for (int i = 0; i < size; i++) {
+                xs[i] = bullets.getX(i);
+                ys[i] = bullets.getY(i);
+                directions[i] = bullets.getDirection(i);
+            }
+        }
+
+        public final int getX(int index) {
+            return xs[index];
+        }
+
+        public final int getY(int index) {
+            return ys[index];
+        }
+
+        public final int getDirection(int index) {
+            return directions[index];
+        }
+
+        public final int size() {
+            return size;
+        }
+    }
+
+    private long tickCount;
+    private long tickNanos;
+    private int wave;
+    private boolean gameOver;
+    private int score;
+    private int lives;
+    private int bulletSpeed;
+
+    private int playerX;
+    private int playerY;
+
+    private int alienCount;
+    private int[] alienXs = new int[0];
+    private int[] alienYs = new int[0];
+
+    private final BulletLane playerBullets = new BulletLane();
+    private final BulletLane alienBullets = new BulletLane();
+
+    // Obstacles, with the cells of obstacle i at rows i * CELL_ROWS onwards
+    private int obstacleCount;
+    private int obstacleEpoch;
+    private int[] obstacleXs = new int[0];
+    private int[] obstacleYs = new int[0];
+    private int[] obstacleVersions = new int[0];
+    private long[] obstacleCells = new long[0];
+
+    /**
+     * Copies the drawable state of a world into this snapshot.
+     *
+     * @param world     The world to copy.
+     * @param tickNanos The time, in nanoseconds, at which the world reached
+     *                  its current tick; renderers interpolate from it.
+     */
+
+    public final void capture(World world, long tickNanos) {
+        GameState gameState = world.getGameState();
+        this.tickCount = world.getTickCount();
+        this.tickNanos = tickNanos;
+        this.wave = world.getWave();
+        this.gameOver = world.isGameOver();
+        this.score = gameState.getScore();
+        this.lives = gameState.getLives();
+        this.bulletSpeed = world.getConfig().getBulletSpeed();
+
+        Player player = world.getPlayer();
+        this.playerX = player.getX();
+        this.playerY = player.getY();
+
+        Formation formation = world.getFormation();
+        if (alienXs.length < formation.getAliveCount()) {
+            alienXs = new int[formation.getSlotCount()];
+            alienYs = new int[formation.getSlotCount()];
+        }
+        alienCount = 0;
+        for (int slot = formation.nextAlive(0); slot != -1; slot = formation.nextAlive(slot + 1)) {
+            alienXs[alienCount] = formation.getSlotX(slot);
+            alienYs[alienCount] = formation.getSlotY(slot);
+            alienCount++;
+        }
+
+        playerBullets.capture(world.getPlayerBullets());
+        alienBullets.capture(world.getAlienBullets());
+
+        List<Obstacle> obstacles = world.getObstacles();
+        obstacleCount = obstacles.size();
+        obstacleEpoch = world.getObstacleEpoch();
+        if (obstacleXs.length < obstacleCount) {
+            obstacleXs = Arrays.copyOf(obstacleXs, obstacleCount);
+            obstacleYs = Arrays.copyOf(obstacleYs, obstacleCount);
+            obstacleVersions = Arrays.copyOf(obstacleVersions, obstacleCount);
+            obstacleCells = Arrays.copyOf(obstacleCells, obstacleCount * Obstacle.CELL_ROWS);
+        }
+        for (int i = 0; i < obstacleCount; i++) {
+            Obstacle obstacle = obstacles.get(i);
+            obstacleXs[i] = obstacle.getX();
+            obstacleYs[i] = obstacle.getY();
+            obstacleVersions[i] = obstacle.getVersion();
+            obstacle.copyCells(obstacleCells, i * Obstacle.CELL_ROWS);
+        }
+    }
+
+    public final long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     *
+     * @return The time, in nanoseconds, at which the world reached the tick
+     *         this snapshot shows.
+     */
+
+    public final long getTickNanos() {
+        return tickNanos;
+    }
+
+    public final int getWave() {
+        return wave;
+    }
+
+    public final boolean isGameOver() {
+        return gameOver;
+    }
+
+    public final int getScore() {
+        return score;
+    }
+
+    public final int getLives() {
+        return lives;
+    }
+
+    /**
+     *
+     * @return The distance bullets move in one tick; renderers interpolate
+     *         with it.
+     */
+
+    public final int getBulletSpeed() {
+        return bulletSpeed;
+    }
+
+    public final int getPlayerX() {
+        return playerX;
+    }
+
+    public final int getPlayerY() {
+        return playerY;
+    }
+
+    /**
+     *
+     * @return The number of live aliens.
+     */
+
+    public final int getAlienCount() {
+        return alienCount;
+    }
+
+    public final int getAlienX(int index) {
+        return alienXs[index];
+    }
+
+    public final int getAlienY(int index) {
+        return alienYs[index];
+    }
+
+    public final BulletLane getPlayerBullets() {
+        return playerBullets;
+    }
+
+    public final BulletLane getAlienBullets() {
+        return alienBullets;
+    }
+
+    public final int getObstacleCount() {
+        return obstacleCount;
+    }
+
+    /**
+     *
+     * @return The obstacle epoch of the world, see
+     *         {@link World#getObstacleEpoch()}.
+     */
+
+    public final int getObstacleEpoch() {
+        return obstacleEpoch;
+    }
+
+    public final int getObstacleX(int index) {
+        return obstacleXs[index];
+    }
+
+    public final int getObstacleY(int index) {
+        return obstacleYs[index];
+    }
+
+    public final int getObstacleVersion(int index) {
+        return obstacleVersions[index];
+    }
+
+    /**
+     *
+     * @return The cells of every obstacle, CELL_ROWS rows per obstacle.
+     */
+
+    public final long[] getObstacleCells() {
+        return obstacleCells;
+    }
+}